@@ -0,0 +1,44 @@
+package com.jnj.fluxgraph;
+
+/**
+ * A FluxGraph that is optimized for bulk loading. Instead of requiring an explicit commit, the statements of the transaction
+ * of the current thread are committed automatically once the buffer size is reached. The ids of newly created elements are
+ * resolved in bulk from the result of the transaction in which they got committed. Hence, the id of a newly created element is
+ * a temporary id until its transaction is committed. Remaining statements are committed through commit() or shutdown().
+ * As each thread buffers its own statements, shutdown() only commits the buffer of the calling thread. A bulk load is meant to be done
+ * by a single writer thread; additional writer threads should commit() their own buffer before the graph is shut down, otherwise their
+ * remaining statements are lost.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class BatchFluxGraph extends FluxGraph {
+
+    public static final int DEFAULT_BUFFER_SIZE = 10000;
+
+    private final int bufferSize;
+
+    public BatchFluxGraph(final String graphURI) {
+        this(graphURI, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BatchFluxGraph(final String graphURI, final int bufferSize) {
+        super(graphURI);
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size should be strictly positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Only commits the buffered statements (of the current thread) once the buffer size is reached
+    @Override
+    protected void autoCommit() {
+        if (tx.get().size() >= bufferSize) {
+            commit();
+        }
+    }
+
+}
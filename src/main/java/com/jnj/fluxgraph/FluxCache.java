@@ -0,0 +1,153 @@
+package com.jnj.fluxgraph;
+
+import datomic.Database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of the decoded facts of elements. Datomic database values are immutable, hence the decoded facts
+ * of an element at a particular basis t (or as-of t) never change and can be shared between threads and element instances.
+ * The cache is split into lock-striped segments, each of which evicts its least recently used entries once it is full.
+ * Speculative database values (obtained through Database.with) share the basis t of the database they are derived from and
+ * should never be passed to this cache.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public FluxCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the cache should be strictly positive");
+        }
+        this.capacity = capacity;
+        int segmentCapacity = Math.max(1, capacity / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    // Retrieve the decoded facts of an element in a committed database value (decoding them on a cache miss)
+    public FluxProperties get(final FluxGraph graph, final Database database, final Object id) {
+        Long t = getT(database);
+        if (t == null) {
+            return new FluxProperties(graph, database, id);
+        }
+        Key key = new Key(t, id);
+        int hash = key.hashCode();
+        Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        FluxProperties properties;
+        synchronized (segment) {
+            properties = segment.get(key);
+        }
+        if (properties != null) {
+            hits.incrementAndGet();
+            return properties;
+        }
+        misses.incrementAndGet();
+        // Decode outside of the lock, a concurrent decode of the same element results in an identical view
+        properties = new FluxProperties(graph, database, id);
+        synchronized (segment) {
+            segment.put(key, properties);
+        }
+        return properties;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    // The t that identifies the contents of a database value (null if the database value is filtered and should not be cached)
+    private Long getT(final Database database) {
+        if (database.sinceT() != null) {
+            return null;
+        }
+        Long asOfT = database.asOfT();
+        if (asOfT != null) {
+            return Math.min(asOfT, database.basisT());
+        }
+        return database.basisT();
+    }
+
+    private static final class Key {
+        private final long t;
+        private final Object id;
+
+        private Key(final long t, final Object id) {
+            this.t = t;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return t == that.t && id.equals(that.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + (int)(t ^ (t >>> 32));
+        }
+    }
+
+    // Segment of the cache that keeps its entries in access order
+    private final class Segment extends LinkedHashMap<Key, FluxProperties> {
+        private final int capacity;
+
+        private Segment(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, FluxProperties> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -4,8 +4,9 @@ import com.tinkerpop.blueprints.*;
 import com.tinkerpop.blueprints.util.ExceptionFactory;
 import com.tinkerpop.blueprints.util.StringFactory;
 import datomic.Database;
-import datomic.Util;
+import datomic.Datom;
 
+import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -13,16 +14,18 @@ import java.util.Set;
  */
 public class FluxEdge extends FluxElement implements TimeAwareEdge {
 
+    // The label and vertices of an edge never change. They are loaded lazily or carried forward from the adjacency lookup that found the edge
+    private String label;
+    private Object outVertexId;
+    private Object inVertexId;
+
     public FluxEdge(final FluxGraph fluxGraph, final Database database) {
         super(fluxGraph, database);
-        fluxGraph.addToTransaction(Util.map(":db/id", id,
-                                               ":graph.element/type", ":graph.element.type/edge",
-                                               ":db/ident", uuid));
+        fluxGraph.assertFact(id, ":graph.element/type", ":graph.element.type/edge");
     }
 
     public FluxEdge(final FluxGraph fluxGraph, final Database database, final Object id) {
-        super(fluxGraph, database);
-        this.id = id;
+        super(fluxGraph, database, id);
     }
 
     @Override
@@ -54,6 +57,11 @@ public class FluxEdge extends FluxElement implements TimeAwareEdge {
         return null;
     }
 
+    @Override
+    protected FluxEdge getVersion(final Object transaction) {
+        return new FluxEdge(fluxGraph, transaction != null ? fluxGraph.getRawGraph(transaction) : null, id);
+    }
+
     @Override
     public Iterable<TimeAwareEdge> getNextVersions() {
         return new FluxTimeIterable(this, true);
@@ -76,17 +84,90 @@ public class FluxEdge extends FluxElement implements TimeAwareEdge {
 
     @Override
     public TimeAwareVertex getVertex(Direction direction) throws IllegalArgumentException {
-        if (direction.equals(Direction.OUT))
-            return new FluxVertex(fluxGraph, database, getDatabase().datoms(Database.EAVT, getId(), fluxGraph.GRAPH_EDGE_OUT_VERTEX).iterator().next().v());
-        else if (direction.equals(Direction.IN))
-            return new FluxVertex(fluxGraph, database, getDatabase().datoms(Database.EAVT, getId(), fluxGraph.GRAPH_EDGE_IN_VERTEX).iterator().next().v());
+        // The vertices of a newly created edge are only available in the transaction
+        if (isNew() && !direction.equals(Direction.BOTH)) {
+            Object vertexId = fluxGraph.getAssertions(id).get(direction.equals(Direction.OUT) ? ":graph.edge/outVertex" : ":graph.edge/inVertex");
+            FluxElement newVertex = fluxGraph.getNewElement(vertexId);
+            return newVertex != null ? (FluxVertex)newVertex : new FluxVertex(fluxGraph, database, vertexId);
+        }
+        if (direction.equals(Direction.OUT) || direction.equals(Direction.IN)) {
+            return new FluxVertex(fluxGraph, database, getVertexId(direction));
+        }
         else
             throw ExceptionFactory.bothIsNotSupported();
     }
 
     @Override
     public String getLabel() {
-        return (String)getDatabase().datoms(Database.EAVT, getId(), fluxGraph.GRAPH_EDGE_LABEL).iterator().next().v();
+        if (isNew()) {
+            return (String)fluxGraph.getAssertions(id).get(":graph.edge/label");
+        }
+        if (label == null) {
+            load();
+        }
+        return label;
+    }
+
+    // Retrieve the id of the vertex in a particular direction without creating the vertex. If the other vertex was carried forward from the
+    // adjacency lookup, only the missing vertex is read. Otherwise, the label and both vertices are loaded at once
+    Object getVertexId(final Direction direction) {
+        if (isNew()) {
+            return getVertex(direction).getId();
+        }
+        if (direction.equals(Direction.OUT)) {
+            if (outVertexId == null) {
+                if (inVertexId != null) {
+                    outVertexId = loadVertexId(":graph.edge/outVertex");
+                }
+                else {
+                    load();
+                }
+            }
+            return outVertexId;
+        }
+        if (inVertexId == null) {
+            if (outVertexId != null) {
+                inVertexId = loadVertexId(":graph.edge/inVertex");
+            }
+            else {
+                load();
+            }
+        }
+        return inVertexId;
+    }
+
+    // Carries the facts of the edge that are already known forward (null values are loaded lazily)
+    void prefetch(final String label, final Object outVertexId, final Object inVertexId) {
+        if (label != null) {
+            this.label = label;
+        }
+        if (outVertexId != null) {
+            this.outVertexId = outVertexId;
+        }
+        if (inVertexId != null) {
+            this.inVertexId = inVertexId;
+        }
+    }
+
+    @Override
+    void reset(final Object id) {
+        super.reset(id);
+        label = null;
+        outVertexId = null;
+        inVertexId = null;
+    }
+
+    // Loads the label and both vertices through a single scan of the edge entity
+    // As they never change, they can be read without the pending statements of the transaction
+    private void load() {
+        FluxProperties properties = getProperties(database == null ? fluxGraph.getCommittedGraph() : database);
+        prefetch(properties.getLabel(), properties.getOutVertex(), properties.getInVertex());
+    }
+
+    // Loads one vertex of the edge through a single datom lookup, without decoding (and caching) the facts of the edge
+    private Object loadVertexId(final String attribute) {
+        Iterator<Datom> datoms = (database == null ? fluxGraph.getCommittedGraph() : database).datoms(Database.EAVT, id, attribute).iterator();
+        return datoms.hasNext() ? datoms.next().v() : null;
     }
 
     @Override
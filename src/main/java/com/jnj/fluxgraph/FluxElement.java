@@ -7,7 +7,6 @@ import com.tinkerpop.blueprints.util.StringFactory;
 import datomic.Database;
 import datomic.Entity;
 import datomic.Peer;
-import datomic.Util;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
@@ -20,17 +19,32 @@ public abstract class FluxElement implements TimeAwareElement {
 
     protected final Database database;
     protected final FluxGraph fluxGraph;
-    protected Object uuid;
     protected Object id;
+    // Decoded facts of the database value this element was last read from
+    private Database propertiesDatabase;
+    private FluxProperties properties;
 
     protected FluxElement(final FluxGraph fluxGraph, final Database database) {
         this.database = database;
         this.fluxGraph = fluxGraph;
-        // UUID used to retrieve the actual datomic id later on
-        uuid = Keyword.intern(UUID.randomUUID().toString());
+        // Temporary id, the actual datomic id is resolved when the transaction is committed
         id = Peer.tempid(":graph");
     }
 
+    // Handle on an existing element, which only holds its id and database value
+    protected FluxElement(final FluxGraph fluxGraph, final Database database, final Object id) {
+        this.database = database;
+        this.fluxGraph = fluxGraph;
+        this.id = id;
+    }
+
+    // Points this handle at another existing element of the same database value (used by iterations that reuse their elements)
+    void reset(final Object id) {
+        this.id = id;
+        this.properties = null;
+        this.propertiesDatabase = null;
+    }
+
     @Override
     public Object getId() {
         return id;
@@ -38,6 +52,10 @@ public abstract class FluxElement implements TimeAwareElement {
 
     @Override
     public Object getTimeId() {
+        // A newly created element is not part of any transaction yet
+        if (isNew()) {
+            return null;
+        }
         return FluxUtil.getActualTimeId(getDatabase(), this);
     }
 
@@ -48,52 +66,46 @@ public abstract class FluxElement implements TimeAwareElement {
 
     @Override
     public boolean isDeleted() {
+        // A newly created element is deleted if it got removed again within the same transaction
+        if (isNew()) {
+            return fluxGraph.getAssertions(id) == null;
+        }
+        if (isCurrentVersion() && fluxGraph.isRemoved(id)) {
+            return true;
+        }
         // An element is deleted if we can no longer find any reference to it in the current version of the graph
-        Collection<List<Object>> found = (Peer.q("[:find ?id " +
-                                                  ":in $ ?id " +
-                                                  ":where [?id _ _ ] ]", getDatabase(), id));
-        return found.isEmpty();
+        return !getProperties(isCurrentVersion() ? fluxGraph.getCommittedGraph() : database).exists();
     }
 
     @Override
     public Set<String> getPropertyKeys() {
-        if (isDeleted()) {
-            throw new IllegalArgumentException("It is not possible to get properties on a deleted element");
-        }
-        Set<String> finalproperties = new HashSet<String>();
-        Set properties = getDatabase().entity(id).keySet();
-        Iterator<Keyword> propertiesit = properties.iterator();
-        while (propertiesit.hasNext()) {
-            Keyword property = propertiesit.next();
-            if (!FluxUtil.isReservedKey(property.toString())) {
-                finalproperties.add(FluxUtil.getPropertyName(property));
+        // The facts of a newly created element are only available in the transaction
+        if (isNew()) {
+            Map facts = getNewFacts();
+            Set<String> finalproperties = new HashSet<String>();
+            for (Object property : facts.keySet()) {
+                if (!FluxUtil.isReservedKey(property.toString())) {
+                    finalproperties.add(FluxUtil.getPropertyName((Keyword)property));
+                }
             }
+            return finalproperties;
         }
-        return finalproperties;
+        return new HashSet<String>(getExistingProperties().getKeys());
     }
 
     @Override
     public <T> T getProperty(final String key) {
-        if (isDeleted()) {
-            throw new IllegalArgumentException("It is not possible to get properties on a deleted element");
-        }
-        if (!FluxUtil.isReservedKey(key)) {
-            Set properties = getDatabase().entity(id).keySet();
-            Iterator<Keyword> propertiesit = properties.iterator();
-            // We need to iterate, as we don't know the exact type (although we ensured that only one attribute will have that name)
-            while (propertiesit.hasNext()) {
-                Keyword property = propertiesit.next();
-                String propertyname = FluxUtil.getPropertyName(property);
-                if (key.equals(propertyname)) {
-                    return (T)getDatabase().entity(id).get(property);
-                }
-            }
-            // We didn't find the value
-            return null;
+        // The facts of a newly created element are only available in the transaction
+        if (isNew()) {
+            Map facts = getNewFacts();
+            Object property = getPropertyAttribute(facts.keySet(), key);
+            return property != null ? (T)facts.get(property) : null;
         }
-        else {
+        FluxProperties properties = getExistingProperties();
+        if (FluxUtil.isReservedKey(key)) {
             return (T)getDatabase().entity(id).get(key);
         }
+        return (T)properties.getValue(key);
     }
 
     @Override
@@ -105,40 +117,43 @@ public abstract class FluxElement implements TimeAwareElement {
             throw new IllegalArgumentException("Property key is reserved for all nodes and edges: " + StringFactory.LABEL);
         if (key.equals(StringFactory.EMPTY_STRING))
             throw ExceptionFactory.propertyKeyCanNotBeEmpty();
+        // A previous value set within this transaction is replaced
+        fluxGraph.cancelAssertions(id, key);
         // A user-defined property
         if (!FluxUtil.isReservedKey(key)) {
-            // If the property does not exist yet, create the attribute if required and create the appropriate transaction
-            if (getProperty(key) == null) {
-                // We first need to create the new attribute on the fly
-                FluxUtil.createAttributeDefinition(key, value.getClass(), this.getClass(), fluxGraph);
-                fluxGraph.addToTransaction(Util.map(":db/id", id,
-                        FluxUtil.createKey(key, value.getClass(), this.getClass()), value));
-            }
-            else {
-                // Value types match, just perform an update
-                if (getProperty(key).getClass().equals(value.getClass())) {
-                    fluxGraph.addToTransaction(Util.map(":db/id", id,
-                            FluxUtil.createKey(key, value.getClass(), this.getClass()), value));
-                }
-                // Value types do not match. Retract original fact and add new one
-                else {
-                    FluxUtil.createAttributeDefinition(key, value.getClass(), this.getClass(), fluxGraph);
-                    fluxGraph.addToTransaction(Util.list(":db/retract", id,
-                            FluxUtil.createKey(key, value.getClass(), this.getClass()), getProperty(key)));
-                    fluxGraph.addToTransaction(Util.map(":db/id", id,
-                            FluxUtil.createKey(key, value.getClass(), this.getClass()), value));
+            // We first need to create the new attribute on the fly (if required)
+            FluxUtil.createAttributeDefinition(key, value.getClass(), this.getClass(), fluxGraph);
+            Keyword attribute = FluxUtil.createKey(key, value.getClass(), this.getClass());
+            // Value types do not match. Retract the original fact (as it is stored in the attribute of the original value type)
+            if (!isNew()) {
+                FluxProperties committed = getProperties(fluxGraph.getCommittedGraph());
+                Keyword committedAttribute = committed.getAttribute(key);
+                if (committedAttribute != null && !committedAttribute.equals(attribute)) {
+                    fluxGraph.retractFact(id, committedAttribute, committed.getValue(key));
                 }
             }
+            fluxGraph.assertFact(id, attribute, value);
         }
         // A datomic graph specific property
         else {
-            fluxGraph.addToTransaction(Util.map(":db/id", id,
-                    key, value));
+            fluxGraph.assertFact(id, key, value);
         }
         fluxGraph.addTransactionInfo(this);
-        fluxGraph.transact();
+        fluxGraph.autoCommit();
     }
 
+    // Retrieve the ordered transactions of the versions of this element in the committed graph (null if they are not reflected in the version index)
+    protected long[] getVersionTransactions() {
+        Database committed = fluxGraph.getCommittedGraph();
+        if (isNew() || !(id instanceof Long) || !fluxGraph.getVersionIndex().isCurrent(committed)) {
+            return null;
+        }
+        return fluxGraph.getVersionIndex().getTransactions(committed, id);
+    }
+
+    // Creates the version of this element that is timescoped to a transaction (the current version if the transaction is null)
+    protected abstract FluxElement getVersion(Object transaction);
+
     public Interval getTimeInterval() {
         DateTime startTime = new DateTime(FluxUtil.getTransactionDate(fluxGraph, getTimeId()));
         TimeAwareElement nextElement = this.getNextVersion();
@@ -157,12 +172,19 @@ public abstract class FluxElement implements TimeAwareElement {
         Object oldvalue = getProperty(key);
         if (oldvalue != null) {
             if (!FluxUtil.isReservedKey(key)) {
-                fluxGraph.addToTransaction(Util.list(":db/retract", id,
-                                       FluxUtil.createKey(key, oldvalue.getClass(), this.getClass()), oldvalue));
+                // Cancel the value set within this transaction and retract the committed value
+                fluxGraph.cancelAssertions(id, key);
+                if (!isNew()) {
+                    FluxProperties committed = getProperties(fluxGraph.getCommittedGraph());
+                    Keyword committedAttribute = committed.getAttribute(key);
+                    if (committedAttribute != null) {
+                        fluxGraph.retractFact(id, committedAttribute, committed.getValue(key));
+                    }
+                }
             }
         }
         fluxGraph.addTransactionInfo(this);
-        fluxGraph.transact();
+        fluxGraph.autoCommit();
         return (T)oldvalue;
     }
 
@@ -187,6 +209,60 @@ public abstract class FluxElement implements TimeAwareElement {
         return database;
     }
 
+    // Returns true if this element is newly created and not committed yet (it only has a temporary id)
+    protected boolean isNew() {
+        return !(id instanceof Long);
+    }
+
+    // Retrieve the id of this element in the database value it is read from
+    protected Object getDatabaseId() {
+        if (database == null) {
+            return fluxGraph.getDatabaseId(id);
+        }
+        return id;
+    }
+
+    // Retrieve the decoded facts of this element in a particular database value. The view is reused as long as the element
+    // is read from the same database value
+    protected FluxProperties getProperties(final Database database) {
+        if (properties == null || propertiesDatabase != database) {
+            properties = fluxGraph.getProperties(database, id);
+            propertiesDatabase = database;
+        }
+        return properties;
+    }
+
+    // Retrieve the decoded properties of this (committed) element in the database value it is read from
+    private FluxProperties getExistingProperties() {
+        FluxProperties properties = getProperties(getDatabase());
+        if (!properties.exists()) {
+            throw new IllegalArgumentException("It is not possible to get properties on a deleted element");
+        }
+        return properties;
+    }
+
+    // Retrieve the facts of this newly created element that are pending in the transaction
+    private Map getNewFacts() {
+        Map facts = fluxGraph.getAssertions(id);
+        if (facts == null) {
+            throw new IllegalArgumentException("It is not possible to get properties on a deleted element");
+        }
+        return facts;
+    }
+
+    // Retrieve the attribute under which a particular property is stored (null if the property is not set)
+    private Object getPropertyAttribute(final Set attributes, final String key) {
+        if (FluxUtil.isReservedKey(key)) {
+            return attributes.contains(key) ? key : null;
+        }
+        for (Object attribute : attributes) {
+            if (attribute instanceof Keyword && !FluxUtil.isReservedKey(attribute.toString()) && key.equals(FluxUtil.getPropertyName((Keyword)attribute))) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
     private void validate() {
         if (!isCurrentVersion()) {
             throw new IllegalArgumentException("It is not possible to set a property on a non-current version of the element");
@@ -201,14 +277,15 @@ public abstract class FluxElement implements TimeAwareElement {
         // Create the set of facts
         Set<Object> theFacts = new HashSet<Object>();
         // Get the entity
-        Entity entity = getDatabase().entity(id);
+        Entity entity = getDatabase().entity(getDatabaseId());
         // Add the base facts associated with this edge
         Set properties = entity.keySet();
         Iterator<Keyword> propertiesIt = properties.iterator();
         while (propertiesIt.hasNext()) {
             Keyword property = propertiesIt.next();
             // Add all properties (except the ident property (is only originally used for retrieving the id of the created elements)
-            if (!property.toString().equals(":db/ident")) {
+            // and the vertex-centric index and degrees, which are derived from the edges)
+            if (!property.toString().equals(":db/ident") && !FluxUtil.isLabelIndexKey(property) && !FluxUtil.isDegreeKey(property)) {
                 theFacts.add(FluxUtil.map(":db/id", id, property.toString(), entity.get(property).toString()));
             }
         }
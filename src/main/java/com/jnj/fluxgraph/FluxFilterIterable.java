@@ -0,0 +1,61 @@
+package com.jnj.fluxgraph;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterable that only returns the objects that satisfy a condition, up to a maximum number of objects.
+ * The underlying iterable is not consumed any further once the limit is reached.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public abstract class FluxFilterIterable<T> implements Iterable<T> {
+
+    private final Iterable<T> iterable;
+    private final int limit;
+
+    public FluxFilterIterable(final Iterable<T> iterable, final int limit) {
+        this.iterable = iterable;
+        this.limit = limit;
+    }
+
+    // Returns true if the object should be part of the iterable
+    protected abstract boolean isLegal(T object);
+
+    @Override
+    public Iterator<T> iterator() {
+        final Iterator<T> iterator = iterable.iterator();
+        return new Iterator<T>() {
+            private T next;
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && count < limit && iterator.hasNext()) {
+                    T object = iterator.next();
+                    if (isLegal(object)) {
+                        next = object;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T object = next;
+                next = null;
+                count++;
+                return object;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
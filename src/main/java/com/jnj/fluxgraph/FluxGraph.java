@@ -1,11 +1,12 @@
 package com.jnj.fluxgraph;
 
 import clojure.lang.ExceptionInfo;
+import clojure.lang.Keyword;
 import com.tinkerpop.blueprints.*;
-import com.tinkerpop.blueprints.util.DefaultGraphQuery;
 import com.tinkerpop.blueprints.util.ExceptionFactory;
 import com.tinkerpop.blueprints.util.StringFactory;
 import datomic.*;
+import org.joda.time.Interval;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -15,7 +16,7 @@ import java.util.concurrent.ExecutionException;
  *
  * @author Davy Suvee (http://datablend.be)
  */
-public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAwareGraph {
+public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAwareGraph, TransactionalGraph {
 
     private final String graphURI;
     private final Connection connection;
@@ -28,14 +29,23 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
     public final Object GRAPH_EDGE_OUT_VERTEX;
     public final Object GRAPH_EDGE_LABEL;
 
-    private final FluxIndex vertexIndex;
-    private final FluxIndex edgeIndex;
+    private final FluxIndex<Vertex> vertexIndex;
+    private final FluxIndex<Edge> edgeIndex;
+    private final FluxSchema schema;
+    private final FluxCache cache;
+    private final FluxTimeIndex timeIndex;
+    private final FluxVersionIndex versionIndex;
 
     protected final ThreadLocal<List> tx = new ThreadLocal<List>() {
         protected List initialValue() {
             return new ArrayList();
         }
     };
+    protected final ThreadLocal<TransactionState> txState = new ThreadLocal<TransactionState>() {
+        protected TransactionState initialValue() {
+            return new TransactionState();
+        }
+    };
     protected final ThreadLocal<Long> checkpointTime = new ThreadLocal<Long>() {
         protected Long initialValue() {
             return null;
@@ -47,6 +57,18 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         }
     };
 
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    // Maximum number of elements of which the version chains are loaded in a single query
+    private static final int TIME_INTERVAL_BATCH_SIZE = 10000;
+
+    // The version of the meta model that is set up by this version of FluxGraph (graphs of previous versions are upgraded at startup)
+    private static final long META_MODEL_VERSION = 3;
+
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    // Parameter for createKeyIndex that creates a fulltext index on the string values of the key
+    public static final Parameter<String, Boolean> FULLTEXT = new Parameter<String, Boolean>("fulltext", true);
+
     private static final Features FEATURES = new Features();
 
     static {
@@ -62,7 +84,7 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         FEATURES.supportsEdgeRetrieval = true;
         FEATURES.supportsVertexProperties = true;
         FEATURES.supportsEdgeProperties = true;
-        FEATURES.supportsTransactions = false;
+        FEATURES.supportsTransactions = true;
         FEATURES.supportsIndices = false;
 
         FEATURES.supportsSerializableObjectProperty = false;
@@ -85,6 +107,11 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
     }
 
     public FluxGraph(final String graphURI) {
+        this(graphURI, DEFAULT_CACHE_SIZE);
+    }
+
+    // A cache size of 0 disables the element cache
+    public FluxGraph(final String graphURI, final int cacheSize) {
         this.graphURI = graphURI;
         Peer.createDatabase(graphURI);
         // Retrieve the connection
@@ -107,9 +134,33 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         } catch (InterruptedException e) {
             throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
         }
+        // Load the attribute catalog and keep it up to date with the schema changes of all peers
+        this.schema = new FluxSchema(connection);
+        FluxTxReportQueue.addListener(connection, schema);
+        // Load the instants of the transactions and keep them up to date with the transactions of all peers (the index is registered first,
+        // so no transaction is missed while it is loaded)
+        this.timeIndex = new FluxTimeIndex(connection);
+        FluxTxReportQueue.addListener(connection, timeIndex);
+        timeIndex.load();
+        // Load the version chains of the elements on demand and keep them up to date with the transactions of all peers (the index is registered
+        // first, so no transaction is missed while it is initialized)
+        this.versionIndex = new FluxVersionIndex(connection, FluxVersionIndex.DEFAULT_CAPACITY);
+        FluxTxReportQueue.addListener(connection, versionIndex);
+        versionIndex.initialize();
+        this.cache = cacheSize > 0 ? new FluxCache(cacheSize) : null;
         // Create the required indexes
         this.vertexIndex = new FluxIndex<Vertex>("vertexIndex", this, null, Vertex.class);
         this.edgeIndex = new FluxIndex<Edge>("edgeIndex", this, null, Edge.class);
+        // Upgrade the meta model of a graph that was created by a previous version of FluxGraph
+        try {
+            if (getMetaModelVersion() < META_MODEL_VERSION) {
+                upgradeMetaModel();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
+        }
     }
 
     @Override
@@ -119,15 +170,61 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
 
     @Override
     public void shutdown() {
-        // No actions required
+        commit();
+        removeListeners();
+    }
+
+    @Override
+    public void commit() {
+        TransactionState state = txState.get();
+        try {
+            if (!tx.get().isEmpty()) {
+                addDegreeAdjustments(state);
+                Map result = executeTransaction();
+                // The transaction is known to the time and version index before it is seen on the transaction report queue
+                timeIndex.transactionCommitted(result);
+                versionIndex.transactionCommitted(result);
+                // Set the real id on the newly created entities
+                for (FluxElement element : state.newElements.values()) {
+                    element.id = FluxUtil.resolveTempid(result, element.id);
+                }
+            }
+        } finally {
+            tx.get().clear();
+            txState.remove();
+        }
+    }
+
+    // Discards the pending statements of the current thread. Attributes that got installed for new property keys are part of the schema,
+    // which is transacted immediately (see FluxUtil.createAttributeDefinition), hence they are not rolled back
+    @Override
+    public void rollback() {
+        tx.get().clear();
+        txState.remove();
+    }
+
+    @Override
+    @Deprecated
+    public void stopTransaction(Conclusion conclusion) {
+        if (Conclusion.SUCCESS.equals(conclusion)) {
+            commit();
+        }
+        else {
+            rollback();
+        }
     }
 
     @Override
     public TimeAwareEdge getEdge(final Object id) {
         if (null == id)
             throw ExceptionFactory.edgeIdCanNotBeNull();
+        // A newly created edge that is not committed yet
+        FluxElement newElement = getNewElement(id);
+        if (newElement instanceof FluxEdge) {
+            return (FluxEdge)newElement;
+        }
         try {
-            return new FluxEdge(this, this.getRawGraph(), Long.valueOf(id.toString()));
+            return new FluxEdge(this, getElementDatabase(), Long.valueOf(id.toString()));
         } catch (NumberFormatException e) {
             return null;
         } catch (RuntimeException re) {
@@ -138,7 +235,7 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
     @Override
     public Iterable<Edge> getEdges() {
         Iterable<Datom> edges = this.getRawGraph().datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_EDGE);
-        return new FluxIterable<Edge>(edges, this, this.getRawGraph(), Edge.class);
+        return new FluxIterable<Edge>(edges, this, getElementDatabase(), Edge.class);
     }
 
     @Override
@@ -148,27 +245,36 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
 
     @Override
     public GraphQuery query() {
-        return new DefaultGraphQuery(this);
+        return new FluxGraphQuery(this);
     }
 
     @Override
     public TimeAwareEdge addEdge(final Object id, final Vertex outVertex, final Vertex inVertex, final String label) {
+        if (label == null)
+            throw ExceptionFactory.edgeLabelCanNotBeNull();
         // Create the new edge
         try {
             final FluxEdge edge = new FluxEdge(this, null);
-            tx.get().add(Util.map(":db/id", edge.id,
-                                  ":graph.edge/label", label,
-                                  ":graph.edge/inVertex", inVertex.getId(),
-                                  ":graph.edge/outVertex", outVertex.getId()));
+            assertFact(edge.id, ":graph.edge/label", label);
+            assertFact(edge.id, ":graph.edge/inVertex", inVertex.getId());
+            assertFact(edge.id, ":graph.edge/outVertex", outVertex.getId());
+            // Maintain the vertex-centric index of the label (if any label is indexed). Whether this label is indexed is decided within the
+            // transaction, as the index might be created by another peer that this peer has not heard of yet
+            if (schema.hasLabelIndexes()) {
+                List indexEdge = Util.list(FluxUtil.INDEX_EDGE, edge.id, label, outVertex.getId(), inVertex.getId());
+                txState.get().indexedEdges.put(edge.id, indexEdge);
+                addToTransaction(indexEdge);
+            }
+            // Maintain the degrees of both vertices (if kept)
+            adjustDegree(outVertex.getId(), Direction.OUT, label, 1);
+            adjustDegree(inVertex.getId(), Direction.IN, label, 1);
 
             // Update the transaction info of both vertices (moving up their current transaction)
             addTransactionInfo((TimeAwareVertex)inVertex, (TimeAwareVertex)outVertex);
 
-            // Transact
-            transact();
-
-            // Set the real id on the entity
-            edge.id = getRawGraph().entid(edge.uuid);
+            // The real id is set on the entity when the transaction is committed
+            registerNewElement(edge);
+            autoCommit();
             return edge;
         } catch (ExceptionInfo e) {
             if (e.toString().contains("not a valid :string for attribute")) {
@@ -189,11 +295,9 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         // Create the new vertex
         FluxVertex vertex = new FluxVertex(this, null);
 
-        // Transact
-        transact();
-
-        // Set the real id on the entity
-        vertex.id = getRawGraph().entid(vertex.uuid);
+        // The real id is set on the entity when the transaction is committed
+        registerNewElement(vertex);
+        autoCommit();
 
         return vertex;
     }
@@ -202,9 +306,14 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
     public TimeAwareVertex getVertex(final Object id) {
         if (null == id)
             throw ExceptionFactory.vertexIdCanNotBeNull();
+        // A newly created vertex that is not committed yet
+        FluxElement newElement = getNewElement(id);
+        if (newElement instanceof FluxVertex) {
+            return (FluxVertex)newElement;
+        }
         try {
             final Long longId = Long.valueOf(id.toString());
-            return new FluxVertex(this, this.getRawGraph(), longId);
+            return new FluxVertex(this, getElementDatabase(), longId);
         } catch (NumberFormatException e) {
             return null;
         } catch (RuntimeException re) {
@@ -215,7 +324,112 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
     @Override
     public Iterable<Vertex> getVertices() {
         Iterable<Datom> vertices = this.getRawGraph().datoms(Database.AVET, this.GRAPH_ELEMENT_TYPE, this.GRAPH_ELEMENT_TYPE_VERTEX);
-        return new FluxIterable<Vertex>(vertices, this, this.getRawGraph(), Vertex.class);
+        return new FluxIterable<Vertex>(vertices, this, getElementDatabase(), Vertex.class);
+    }
+
+    // Iterates the vertices of the graph through a single vertex instance that is pointed at the next vertex in each step. A vertex returned by
+    // the iterator is only valid until the next vertex is requested, hence this is meant for scans that read the vertices without keeping them
+    public Iterable<Vertex> scanVertices() {
+        return ((FluxIterable<Vertex>)getVertices()).setReuseElements(true);
+    }
+
+    // Iterates the edges of the graph through a single edge instance that is pointed at the next edge in each step (see scanVertices())
+    public Iterable<Edge> scanEdges() {
+        return ((FluxIterable<Edge>)getEdges()).setReuseElements(true);
+    }
+
+    // Iterates the ids of the vertices of the committed graph (at the checkpoint, if any) straight from the element type index
+    public LongIterator vertexIds() {
+        return FluxUtil.getEntityIds(getCommittedGraph().datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_VERTEX));
+    }
+
+    // Iterates the ids of the edges of the committed graph (at the checkpoint, if any) straight from the element type index
+    public LongIterator edgeIds() {
+        return FluxUtil.getEntityIds(getCommittedGraph().datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_EDGE));
+    }
+
+    // Splits the vertices of the committed graph (at the checkpoint, if any) into disjoint ranges of ids that can be scanned in parallel.
+    // All partitions are read from the same database value
+    public List<FluxPartition<Vertex>> getVertexPartitions(final int partitions) {
+        Database database = getCommittedGraph();
+        long[] ids = FluxUtil.toArray(FluxUtil.getEntityIds(database.datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_VERTEX)));
+        return FluxPartition.split(this, database, Vertex.class, ids, partitions);
+    }
+
+    // Splits the edges of the committed graph (at the checkpoint, if any) into disjoint ranges of ids that can be scanned in parallel.
+    // All partitions are read from the same database value
+    public List<FluxPartition<Edge>> getEdgePartitions(final int partitions) {
+        Database database = getCommittedGraph();
+        long[] ids = FluxUtil.toArray(FluxUtil.getEntityIds(database.datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_EDGE)));
+        return FluxPartition.split(this, database, Edge.class, ids, partitions);
+    }
+
+    // Retrieve the ids of the vertices that are reached from the seeds in at most the specified number of hops (the seeds themselves excluded),
+    // joining each hop as a whole against the edges of the committed graph (at the checkpoint, if any). See FluxTraversal for more options
+    public LongHashSet expand(final long[] seedIds, final Direction direction, final int hops, final String... labels) {
+        return new FluxTraversal(this).direction(direction).labels(labels).expand(seedIds, hops);
+    }
+
+    // Retrieve the ids of the vertices on a shortest path between two vertices (null if there is no path of at most maxDepth hops), searching from
+    // both vertices at once in the committed graph. Paths as of a particular date are found by setting the checkpoint time first
+    public long[] shortestPath(final long fromId, final long toId, final Direction direction, final int maxDepth, final String... labels) {
+        return new FluxTraversal(this).direction(direction).labels(labels).shortestPath(fromId, toId, maxDepth);
+    }
+
+    // Returns true if there is a path of at most maxDepth hops between two vertices (see shortestPath)
+    public boolean isReachable(final long fromId, final long toId, final Direction direction, final int maxDepth, final String... labels) {
+        return new FluxTraversal(this).direction(direction).labels(labels).isReachable(fromId, toId, maxDepth);
+    }
+
+    // Retrieve the time intervals of the elements (in the order of the elements). The version chains of the elements are loaded in bulk into the
+    // version index, after which the start and end of each interval are looked up in the version and time index. Elements of a database value
+    // that is not reflected in the version index yet are resolved one by one
+    public FluxTimeIntervals getTimeIntervals(final Iterable<? extends TimeAwareElement> elements) {
+        List<FluxElement> fluxElements = new ArrayList<FluxElement>();
+        for (TimeAwareElement element : elements) {
+            fluxElements.add((FluxElement)element);
+        }
+        long[] starts = new long[fluxElements.size()];
+        long[] ends = new long[fluxElements.size()];
+        Database committed = getCommittedGraph();
+        for (int from = 0; from < fluxElements.size(); from += TIME_INTERVAL_BATCH_SIZE) {
+            List<FluxElement> batch = fluxElements.subList(from, Math.min(from + TIME_INTERVAL_BATCH_SIZE, fluxElements.size()));
+            List<Object> ids = new ArrayList<Object>();
+            for (FluxElement element : batch) {
+                if (element.getId() instanceof Long) {
+                    ids.add(element.getId());
+                }
+            }
+            versionIndex.load(ids);
+            for (int i = 0; i < batch.size(); i++) {
+                FluxElement element = batch.get(i);
+                Database database = element.database != null ? element.database : committed;
+                boolean indexed = element.getId() instanceof Long && versionIndex.isCurrent(committed) && versionIndex.isCurrent(database);
+                Object timeId = indexed ? versionIndex.getTransaction(database, element.getId()) : null;
+                if (timeId == null) {
+                    // Elements that are not reflected in the version index are resolved one by one
+                    Interval interval = element.getTimeInterval();
+                    starts[from + i] = interval.getStartMillis();
+                    ends[from + i] = interval.getEndMillis();
+                    continue;
+                }
+                long[] transactions = versionIndex.getTransactions(committed, element.getId());
+                int position = Arrays.binarySearch(transactions, (Long)timeId);
+                starts[from + i] = FluxUtil.getTransactionDate(this, transactions[position]).getTime();
+                ends[from + i] = position + 1 < transactions.length ? FluxUtil.getTransactionDate(this, transactions[position + 1]).getTime() : Long.MAX_VALUE;
+            }
+        }
+        return new FluxTimeIntervals(starts, ends);
+    }
+
+    // Counts the vertices of the graph in the element type index, without creating the vertices
+    public long countVertices() {
+        return FluxUtil.count(getRawGraph().datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_VERTEX));
+    }
+
+    // Counts the edges of the graph in the element type index, without creating the edges
+    public long countEdges() {
+        return FluxUtil.count(getRawGraph().datoms(Database.AVET, GRAPH_ELEMENT_TYPE, GRAPH_ELEMENT_TYPE_EDGE));
     }
 
     @Override
@@ -233,28 +447,17 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         if (checkpointTime.get() != null) {
             return getRawGraph(checkpointTime.get());
         }
+        // Reads within a transaction see the pending statements of the current thread
+        if (!tx.get().isEmpty()) {
+            return getSpeculation().database;
+        }
         return connection.db();
     }
 
     @Override
     public void setCheckpointTime(Date date) {
-        Long transaction = null;
-        // Retrieve the transactions
-        Iterator<List<Object>> tx = (Peer.q("[:find ?tx ?when " +
-                                           ":where [?tx :db/txInstant ?when]]", connection.db().asOf(date))).iterator();
-        while (tx.hasNext()) {
-            List<Object> txobject = tx.next();
-            Long transactionid = (Long)txobject.get(0);
-            if (transaction == null) {
-                transaction = transactionid;
-            }
-            else {
-                if (transactionid > transaction) {
-                    transaction = transactionid;
-                }
-            }
-        }
-        this.checkpointTime.set(transaction);
+        // Retrieve the last transaction at the date through a binary search of the time index
+        this.checkpointTime.set(timeIndex.getTransaction(date));
     }
 
     @Override
@@ -268,19 +471,19 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         Set<Object> factsAtDate2 = new HashSet<Object>();
         // Set graph at checkpoint date1
         setCheckpointTime(date1);
-        for (Object vertex : workingSet.getVertices()) {
-            factsAtDate1.addAll(((FluxVertex)getVertex(vertex)).getFacts());
+        for (LongIterator verticesIt = workingSet.getVertexIds().iterator(); verticesIt.hasNext(); ) {
+            factsAtDate1.addAll(((FluxVertex)getVertex(verticesIt.next())).getFacts());
         }
-        for (Object edge : workingSet.getEdges()) {
-            factsAtDate1.addAll(((FluxEdge)getEdge(edge)).getFacts());
+        for (LongIterator edgesIt = workingSet.getEdgeIds().iterator(); edgesIt.hasNext(); ) {
+            factsAtDate1.addAll(((FluxEdge)getEdge(edgesIt.next())).getFacts());
         }
         // Set graph at checkpoint date2
         setCheckpointTime(date2);
-        for (Object vertex : workingSet.getVertices()) {
-            factsAtDate2.addAll(((FluxVertex)getVertex(vertex)).getFacts());
+        for (LongIterator verticesIt = workingSet.getVertexIds().iterator(); verticesIt.hasNext(); ) {
+            factsAtDate2.addAll(((FluxVertex)getVertex(verticesIt.next())).getFacts());
         }
-        for (Object edge : workingSet.getEdges()) {
-            factsAtDate2.addAll(((FluxEdge)getEdge(edge)).getFacts());
+        for (LongIterator edgesIt = workingSet.getEdgeIds().iterator(); edgesIt.hasNext(); ) {
+            factsAtDate2.addAll(((FluxEdge)getEdge(edgesIt.next())).getFacts());
         }
         // Calculate the difference between the facts of both time aware elements
         Set<Object> difference = FluxUtil.difference(factsAtDate1, factsAtDate2);
@@ -312,6 +515,12 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         if (elementClass == null) {
             throw ExceptionFactory.classForElementCannotBeNull();
         }
+        for (Parameter param : parameter) {
+            if (FULLTEXT.getKey().equals(param.getKey()) && Boolean.TRUE.equals(param.getValue())) {
+                FluxUtil.createFulltextIndex(key, elementClass, this);
+                return;
+            }
+        }
         FluxUtil.createAttributeIndex(key, elementClass, this);
     }
 
@@ -346,14 +555,308 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         tx.get().add(o);
     }
 
+    // Commits the pending statements of the current thread
     public void transact() {
+        commit();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public FluxSchema getSchema() {
+        return schema;
+    }
+
+    // The index on the vertex properties (supporting exact match, comparison, interval and prefix lookups)
+    public FluxIndex<Vertex> getVertexIndex() {
+        return vertexIndex;
+    }
+
+    // The index on the edge properties (supporting exact match, comparison, interval and prefix lookups)
+    public FluxIndex<Edge> getEdgeIndex() {
+        return edgeIndex;
+    }
+
+    // The index of the instants of the transactions
+    public FluxTimeIndex getTimeIndex() {
+        return timeIndex;
+    }
+
+    // The index of the version chains of the elements
+    public FluxVersionIndex getVersionIndex() {
+        return versionIndex;
+    }
+
+    // The element cache of the graph (null if disabled)
+    public FluxCache getCache() {
+        return cache;
+    }
+
+    // Creates a vertex-centric index for the edges with a particular label. Labeled adjacency lookups on an indexed label become a
+    // direct range read of the index instead of a join over all edges of the vertex. Once the index attributes are installed, the index
+    // is maintained for each new edge by a database function. The existing edges with the label are streamed from the label index of the
+    // database and indexed (as a new version) by this method, after which the index is marked as complete. The index is only read in the
+    // database values that contain the transaction that completed it
+    public void createLabelIndex(final String label) {
+        // The pending edges of the current thread are committed first, so they get indexed as well
+        commit();
+        FluxUtil.createLabelIndexDefinition(label, this);
+        Object outAttribute = schema.getAttribute(FluxUtil.createLabelKey(label, Direction.OUT));
+        if (schema.isIndexComplete(outAttribute, connection.db())) {
+            return;
+        }
+        // All edges that are transacted after this database value are indexed by the database function
+        Database database = connection.db();
+        List<Object> edges = new ArrayList<Object>();
+        for (Datom datom : database.datoms(Database.AVET, GRAPH_EDGE_LABEL, label)) {
+            // Skip the edges that are already indexed
+            if (database.datoms(Database.EAVT, datom.e(), outAttribute).iterator().hasNext()) {
+                continue;
+            }
+            edges.add(datom.e());
+            if (edges.size() >= MIGRATION_BATCH_SIZE) {
+                indexEdges(database, label, edges);
+                edges.clear();
+            }
+        }
+        indexEdges(database, label, edges);
+        completeIndex(outAttribute);
+    }
+
+    // Retrieve the attribute of the vertex-centric index for a label and direction (null if the label is not indexed or if the index is not
+    // complete in the database value, in which case the edges should be looked up through their label)
+    public Object getLabelIndex(final String label, final Direction direction, final Database database) {
+        Object attribute = schema.getAttribute(FluxUtil.createLabelKey(label, direction));
+        if (attribute == null || !schema.isIndexComplete(schema.getAttribute(FluxUtil.createLabelKey(label, Direction.OUT)), database)) {
+            return null;
+        }
+        return attribute;
+    }
+
+    // Adds the facts of the vertex-centric index of a label to a batch of existing edges. The time ids of the edges are retrieved at once
+    private void indexEdges(final Database database, final String label, final List<Object> edges) {
+        if (edges.isEmpty()) {
+            return;
+        }
+        Map<Object, Object> timeIds = FluxUtil.getActualTimeIds(connection.db(), edges);
+        for (Object edge : edges) {
+            addToTransaction(Util.list(FluxUtil.INDEX_EDGE, edge, label, getValue(database, edge, GRAPH_EDGE_OUT_VERTEX), getValue(database, edge, GRAPH_EDGE_IN_VERTEX)));
+            addTransactionInfo(edge, timeIds.get(edge));
+        }
+        commit();
+    }
+
+    // Marks an index as complete, once the facts of all existing elements are added
+    private void completeIndex(final Object attribute) {
+        addToTransaction(Util.map(":db/id", attribute, ":graph.index/complete", true));
+        Map result = executeTransaction();
+        schema.setIndexComplete(attribute, ((Database)result.get(Connection.DB_AFTER)).basisT());
+        txState.remove();
+    }
+
+    // Retrieve the value of a (cardinality one) attribute of an entity in a database value (null if the entity has no value for the attribute)
+    private static Object getValue(final Database database, final Object id, final Object attribute) {
+        Iterator<Datom> datoms = database.datoms(Database.EAVT, id, attribute).iterator();
+        return datoms.hasNext() ? datoms.next().v() : null;
+    }
+
+    // Keeps the number of outgoing and incoming edges of each vertex in indexed degree attributes, which turns a degree lookup into the read of
+    // a single datom (also in older versions of the graph, once the index is complete) and the retrieval of the vertices with a large degree into
+    // an index range read
+    public void createDegreeIndex() {
+        createDegreeIndex(null);
+    }
+
+    // Keeps the number of outgoing and incoming edges with a particular label of each vertex in indexed degree attributes. Once the degree
+    // attributes are installed, the degrees are adjusted by a database function for the edges that are added or removed. The degrees of the
+    // existing edges are counted by streaming the edges from the indexes of the database, added (as a new version of their vertices) by this
+    // method, after which the index is marked as complete. The degrees are only read in the database values that contain the transaction
+    // that completed the index
+    public void createDegreeIndex(final String label) {
+        // The pending edges of the current thread are committed first, so they get counted as well
+        commit();
+        FluxUtil.createDegreeIndexDefinition(label, this);
+        Keyword outAttribute = FluxUtil.createDegreeKey(label, Direction.OUT);
+        Keyword inAttribute = FluxUtil.createDegreeKey(label, Direction.IN);
+        if (schema.isIndexComplete(schema.getAttribute(outAttribute), connection.db())) {
+            return;
+        }
+        // All edges that are added or removed after this database value adjust the degrees through the database function
+        Database database = connection.db();
+        LongLongHashMap outDegrees = new LongLongHashMap();
+        LongLongHashMap inDegrees = new LongLongHashMap();
+        if (label == null) {
+            for (Datom datom : database.datoms(Database.AVET, GRAPH_EDGE_OUT_VERTEX)) {
+                increment(outDegrees, datom.v());
+            }
+            for (Datom datom : database.datoms(Database.AVET, GRAPH_EDGE_IN_VERTEX)) {
+                increment(inDegrees, datom.v());
+            }
+        }
+        else {
+            for (Datom datom : database.datoms(Database.AVET, GRAPH_EDGE_LABEL, label)) {
+                increment(outDegrees, getValue(database, datom.e(), GRAPH_EDGE_OUT_VERTEX));
+                increment(inDegrees, getValue(database, datom.e(), GRAPH_EDGE_IN_VERTEX));
+            }
+        }
+        // The vertices that already have a degree are visited as well, as their edges might be removed in the meantime
+        LongHashSet vertices = new LongHashSet();
+        vertices.addAll(outDegrees.keys());
+        vertices.addAll(inDegrees.keys());
+        for (Datom datom : database.datoms(Database.AVET, outAttribute)) {
+            vertices.add((Long)datom.e());
+        }
+        for (Datom datom : database.datoms(Database.AVET, inAttribute)) {
+            vertices.add((Long)datom.e());
+        }
+        List adjustments = new ArrayList();
+        List<Object> adjusted = new ArrayList<Object>();
+        for (LongIterator verticesIt = vertices.iterator(); verticesIt.hasNext(); ) {
+            Long vertex = verticesIt.next();
+            // Edges that were added after the degree attributes got installed already adjusted the degree of their vertices. The difference with
+            // the counted degree is added through the database function, hence edges that are added concurrently are not lost
+            long outDelta = outDegrees.get(vertex, 0) - getDegree(database, vertex, outAttribute);
+            long inDelta = inDegrees.get(vertex, 0) - getDegree(database, vertex, inAttribute);
+            if (outDelta == 0 && inDelta == 0) {
+                continue;
+            }
+            adjustments.add(Util.list(vertex, outAttribute, outDelta));
+            adjustments.add(Util.list(vertex, inAttribute, inDelta));
+            adjusted.add(vertex);
+            if (adjusted.size() >= MIGRATION_BATCH_SIZE) {
+                adjustDegrees(adjustments, adjusted);
+                adjustments.clear();
+                adjusted.clear();
+            }
+        }
+        adjustDegrees(adjustments, adjusted);
+        completeIndex(schema.getAttribute(outAttribute));
+    }
+
+    // Retrieve the degree attribute for a label (or for all edges if the label is null) and direction in the latest database value (null if
+    // the degree is not kept)
+    public Object getDegreeIndex(final String label, final Direction direction) {
+        return getDegreeIndex(label, direction, connection.db());
+    }
+
+    // Retrieve the degree attribute for a label (or for all edges if the label is null) and direction (null if the degree is not kept or if the
+    // index is not complete in the database value, in which case the edges should be counted)
+    public Object getDegreeIndex(final String label, final Direction direction, final Database database) {
+        Object attribute = schema.getAttribute(FluxUtil.createDegreeKey(label, direction));
+        if (attribute == null || !schema.isIndexComplete(schema.getAttribute(FluxUtil.createDegreeKey(label, Direction.OUT)), database)) {
+            return null;
+        }
+        return attribute;
+    }
+
+    // Adds the counted degrees to a batch of existing vertices. The time ids of the vertices are retrieved at once
+    private void adjustDegrees(final List adjustments, final List<Object> vertices) {
+        if (vertices.isEmpty()) {
+            return;
+        }
+        addToTransaction(Util.list(FluxUtil.ADJUST_DEGREES, new ArrayList(adjustments)));
+        Map<Object, Object> timeIds = FluxUtil.getActualTimeIds(connection.db(), vertices);
+        for (Object vertex : vertices) {
+            addTransactionInfo(vertex, timeIds.get(vertex));
+        }
+        commit();
+    }
+
+    private static void increment(final LongLongHashMap degrees, final Object id) {
+        if (id != null) {
+            degrees.put((Long)id, degrees.get((Long)id, 0) + 1);
+        }
+    }
+
+    // Retrieve the vertices with at least a minimum number of outgoing or incoming edges, read from the degree index in the committed graph
+    public Iterable<Vertex> getSupernodes(final Direction direction, final long minimumDegree) {
+        if (direction.equals(Direction.BOTH)) {
+            throw new IllegalArgumentException("Supernodes can only be retrieved for the OUT or IN direction");
+        }
+        Database committed = getCommittedGraph();
+        Object attribute = getDegreeIndex(null, direction, committed);
+        if (attribute == null) {
+            throw new UnsupportedOperationException("The degrees of the vertices are not kept in the committed graph, see createDegreeIndex()");
+        }
+        return new FluxIterable<Vertex>(committed.indexRange(attribute, minimumDegree, null), this, getElementDatabase(), Vertex.class);
+    }
+
+    // Migration that retracts the :db/ident that previous versions of FluxGraph created for each vertex and edge. It is run by the upgrade of the
+    // meta model at startup (see upgradeMetaModel). The retraction is registered as a new version of the element in order to keep its linked list
+    // of transactions intact. The time ids of the elements are retrieved per batch of elements
+    public void removeElementIdents() {
+        Collection<List<Object>> idents = Peer.q("[:find ?element ?ident " +
+                                                  ":in $ " +
+                                                  ":where [?element :graph.element/type _] " +
+                                                         "[?element :db/ident ?ident] ]", connection.db());
+        List<List<Object>> batch = new ArrayList<List<Object>>();
+        for (List<Object> ident : idents) {
+            batch.add(ident);
+            if (batch.size() == MIGRATION_BATCH_SIZE) {
+                removeElementIdents(batch);
+                batch.clear();
+            }
+        }
+        removeElementIdents(batch);
+    }
+
+    // Ensures that add-transaction-info database function is called during the transaction execution. This will setup the linked list of transactions
+    // An element is only moved up once per transaction, using its time id in the committed version of the graph
+    public void addTransactionInfo(TimeAwareElement... elements) {
+        for (TimeAwareElement element : elements) {
+            // Newly created elements that are not transacted yet do not have a previous transaction
+            if (!((FluxElement)element).isNew() && !txState.get().versionedElements.contains(element.getId())) {
+                addTransactionInfo(element.getId(), FluxUtil.getActualTimeId(getCommittedGraph(), element));
+            }
+        }
+    }
+
+    // The database value to which retrieved elements are scoped. Without a checkpoint, elements are the current version (a null database).
+    // Hence, an element is never scoped to the speculative database value of a transaction
+    protected Database getElementDatabase() {
+        if (checkpointTime.get() != null) {
+            return getRawGraph(checkpointTime.get());
+        }
+        return null;
+    }
+
+    // Retrieve the decoded facts of an element in a database value. The decoded facts of a committed database value are shared through
+    // the element cache, the speculative database value of the pending transaction bypasses the cache
+    protected FluxProperties getProperties(final Database database, final Object id) {
+        Speculation speculation = txState.get().speculation;
+        if (cache == null || (speculation != null && speculation.database == database)) {
+            return new FluxProperties(this, database, id);
+        }
+        return cache.get(this, database, id);
+    }
+
+    // Stops following the transaction report queue of the connection. The schema, time and version index of the graph then only see the
+    // transactions that are committed through this graph (and fall back to the database for the other transactions)
+    protected void removeListeners() {
+        FluxTxReportQueue.removeListener(connection, schema);
+        FluxTxReportQueue.removeListener(connection, timeIndex);
+        FluxTxReportQueue.removeListener(connection, versionIndex);
+    }
+
+    // Returns the graph without the pending statements of the current thread
+    public Database getCommittedGraph() {
+        if (checkpointTime.get() != null) {
+            return getRawGraph(checkpointTime.get());
+        }
+        return connection.db();
+    }
+
+    // Transacts the statements of the current thread and returns the transaction report
+    protected Map executeTransaction() {
         try {
             // We are adding a fact which dates back to the past. Add the required meta data on the transaction
             if (transactionTime.get() != null) {
                 tx.get().add(datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", transactionTime.get()));
             }
-            connection.transact(tx.get()).get();
+            Map result = connection.transact(tx.get()).get();
             tx.get().clear();
+            return result;
         } catch (InterruptedException e) {
             tx.get().clear();
             throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
@@ -363,32 +866,316 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         }
     }
 
-    public Connection getConnection() {
-        return connection;
+    // Hook that is called after each write operation. Writes are kept in the transaction of the current thread until it is committed
+    protected void autoCommit() {
     }
 
-    // Ensures that add-transaction-info database function is called during the transaction execution. This will setup the linked list of transactions
-    public void addTransactionInfo(TimeAwareElement... elements) {
-        for (TimeAwareElement element : elements) {
-            tx.get().add(Util.list(":add-transaction-info", element.getId(), element.getTimeId()));
+    // Registers a newly created element. Its real id is set when the transaction is committed
+    protected void registerNewElement(final FluxElement element) {
+        txState.get().newElements.put(element.id, element);
+    }
+
+    // Retrieve a newly created element of the transaction of the current thread by its temporary id (null if there is no such element)
+    protected FluxElement getNewElement(final Object id) {
+        return txState.get().newElements.get(id);
+    }
+
+    // Removes a newly created element (and the facts asserted for it) from the transaction of the current thread
+    protected void discardNewElement(final FluxElement element) {
+        TransactionState state = txState.get();
+        state.newElements.remove(element.id);
+        Map facts = state.assertions.remove(element.id);
+        if (facts != null) {
+            tx.get().remove(facts);
+        }
+        List indexEdge = state.indexedEdges.remove(element.id);
+        if (indexEdge != null) {
+            tx.get().remove(indexEdge);
+        }
+        state.speculation = null;
+    }
+
+    // Returns the facts asserted for an element in the transaction of the current thread (null if there are none)
+    protected Map getAssertions(final Object id) {
+        return txState.get().assertions.get(id);
+    }
+
+    // Asserts a fact for an element. All facts asserted for the same element are collected in a single statement, hence a later assertion
+    // of the same attribute replaces the earlier one instead of conflicting with it
+    protected void assertFact(final Object id, final Object attribute, final Object value) {
+        TransactionState state = txState.get();
+        Map facts = state.assertions.get(id);
+        boolean added = facts == null;
+        if (added) {
+            facts = FluxUtil.map(":db/id", id);
+            state.assertions.put(id, facts);
+            tx.get().add(facts);
+        }
+        if (facts.put(attribute, value) != null) {
+            // A replaced value can not be added to the speculative database value
+            state.speculation = null;
+        }
+        else if (!added && state.speculation != null) {
+            // The statement might already be part of the speculative database value, hence the new fact is added separately
+            state.changes.add(Util.list(":db/add", id, attribute, value));
+        }
+        // Asserting a (cardinality one) attribute implicitly retracts its previous value
+        Object retraction = state.retractions.remove(Util.list(id, attribute));
+        if (retraction != null) {
+            tx.get().remove(retraction);
+            state.speculation = null;
+        }
+    }
+
+    // Retracts a fact for an element (only once per transaction)
+    protected void retractFact(final Object id, final Object attribute, final Object value) {
+        TransactionState state = txState.get();
+        List key = Util.list(id, attribute);
+        if (!state.retractions.containsKey(key)) {
+            Object retraction = Util.list(":db/retract", id, attribute, value);
+            state.retractions.put(key, retraction);
+            tx.get().add(retraction);
+        }
+    }
+
+    // Cancels the facts that were asserted for a particular property of an element (regardless of the value type)
+    protected void cancelAssertions(final Object id, final String key) {
+        TransactionState state = txState.get();
+        Map facts = state.assertions.get(id);
+        if (facts != null) {
+            Iterator<Object> attributesIt = facts.keySet().iterator();
+            while (attributesIt.hasNext()) {
+                Object attribute = attributesIt.next();
+                if (FluxUtil.isReservedKey(key) ? key.equals(attribute) : (attribute instanceof Keyword && !FluxUtil.isReservedKey(attribute.toString()) && key.equals(FluxUtil.getPropertyName((Keyword)attribute)))) {
+                    attributesIt.remove();
+                    state.speculation = null;
+                }
+            }
+        }
+    }
+
+    // Returns true if the element got removed in the transaction of the current thread
+    protected boolean isRemoved(final Object id) {
+        return txState.get().removedElements.contains(id);
+    }
+
+    // Retrieve the id of an element in the database value returned by getRawGraph()
+    // A newly created element only has a temporary id, which is resolved against the speculative database value
+    protected Object getDatabaseId(final Object id) {
+        if (id instanceof Long || checkpointTime.get() != null || tx.get().isEmpty()) {
+            return id;
+        }
+        Object databaseId = getSpeculation().ids.get(id);
+        return databaseId != null ? databaseId : id;
+    }
+
+    // Retrieve the element id for an id in the database value returned by getRawGraph() (inverse of getDatabaseId)
+    protected Object getElementId(final Object databaseId) {
+        TransactionState state = txState.get();
+        if (state.newElements.isEmpty() || checkpointTime.get() != null) {
+            return databaseId;
+        }
+        Speculation speculation = getSpeculation();
+        if (speculation.elementIds == null) {
+            speculation.elementIds = new HashMap<Object, Object>();
+            for (Map.Entry<Object, Object> id : speculation.ids.entrySet()) {
+                speculation.elementIds.put(id.getValue(), id.getKey());
+            }
+        }
+        Object elementId = speculation.elementIds.get(databaseId);
+        return elementId != null ? elementId : databaseId;
+    }
+
+    // Retrieve the degree of a vertex from its degree attribute (null if the degree is not kept in the database value of the vertex). The degree
+    // of the current version of a vertex includes the edges that were added or removed in the transaction of the current thread
+    protected Long getDegree(final FluxVertex vertex, final Direction direction, final String label) {
+        Object attribute = getDegreeIndex(label, direction, vertex.getDatabase());
+        if (attribute == null) {
+            return null;
+        }
+        long degree = vertex.isNew() ? 0 : getDegree(vertex.getDatabase(), vertex.getDatabaseId(), attribute);
+        if (vertex.database == null) {
+            Long delta = txState.get().degrees.get(Util.list(vertex.getId(), FluxUtil.createDegreeKey(label, direction)));
+            if (delta != null) {
+                degree += delta;
+            }
+        }
+        return degree;
+    }
+
+    // Retrieve the value of a degree attribute of a vertex in a database value (0 if the vertex has no value for the attribute)
+    private long getDegree(final Database database, final Object id, final Object attribute) {
+        Iterator<Datom> datoms = database.datoms(Database.EAVT, id, attribute).iterator();
+        return datoms.hasNext() ? ((Number)datoms.next().v()).longValue() : 0;
+    }
+
+    // Registers a change of the degree of a vertex in the transaction of the current thread (for all edges and for the label), if any degrees
+    // are kept. Whether the degrees of this label are kept is decided within the transaction (see addDegreeAdjustments)
+    private void adjustDegree(final Object id, final Direction direction, final String label, final long delta) {
+        if (!schema.hasDegreeIndexes()) {
+            return;
         }
+        Map<List, Long> degrees = txState.get().degrees;
+        for (String degreeLabel : Arrays.asList(null, label)) {
+            List key = Util.list(id, FluxUtil.createDegreeKey(degreeLabel, direction));
+            Long degree = degrees.get(key);
+            degrees.put(key, (degree == null ? 0 : degree) + delta);
+        }
+    }
+
+    // Adds the registered degree changes to the transaction of the current thread. The degrees are adjusted through a database function that
+    // only adjusts the degrees that are kept and that reads the degree of an existing vertex within the transaction, hence concurrent transactions
+    // on the same vertex do not overwrite each other
+    private void addDegreeAdjustments(final TransactionState state) {
+        List adjustments = new ArrayList();
+        for (Map.Entry<List, Long> degree : state.degrees.entrySet()) {
+            Object id = degree.getKey().get(0);
+            long delta = degree.getValue();
+            if (delta == 0 || state.removedElements.contains(id)) {
+                // The degree is unchanged or retracted together with its vertex
+                continue;
+            }
+            // A newly created vertex that got removed again has no degree
+            if (id instanceof Long || state.newElements.containsKey(id)) {
+                adjustments.add(Util.list(id, degree.getKey().get(1), delta));
+            }
+        }
+        if (!adjustments.isEmpty()) {
+            tx.get().add(Util.list(FluxUtil.ADJUST_DEGREES, adjustments));
+        }
+    }
+
+    // Moves up the current transaction of an element of which the time id is already known (only once per transaction)
+    private void addTransactionInfo(final Object id, final Object timeId) {
+        if (txState.get().versionedElements.add(id)) {
+            addToTransaction(Util.list(":add-transaction-info", id, timeId));
+        }
+    }
+
+    // Retracts the idents of a batch of elements (each consisting of the element and its ident) in a single transaction
+    private void removeElementIdents(final List<List<Object>> idents) {
+        if (idents.isEmpty()) {
+            return;
+        }
+        List<Object> ids = new ArrayList<Object>();
+        for (List<Object> ident : idents) {
+            ids.add(ident.get(0));
+        }
+        Map<Object, Object> timeIds = FluxUtil.getActualTimeIds(connection.db(), ids);
+        for (List<Object> ident : idents) {
+            addToTransaction(Util.list(":db/retract", ident.get(0), ":db/ident", ident.get(1)));
+            addTransactionInfo(ident.get(0), timeIds.get(ident.get(0)));
+        }
+        commit();
+    }
+
+    // Retrieve the speculative database value containing the pending statements of the current thread. The speculative database value is extended
+    // with the statements that were added since it was created, it is only rebuilt from the committed graph if pending statements were changed
+    private Speculation getSpeculation() {
+        TransactionState state = txState.get();
+        List statements = tx.get();
+        Speculation speculation = state.speculation;
+        if (speculation == null) {
+            speculation = new Speculation(0, connection.db(), new HashMap<Object, Object>());
+            state.changes.clear();
+        }
+        if (speculation.size == statements.size() && state.changes.isEmpty()) {
+            return speculation;
+        }
+        // The temporary ids that were resolved in the speculative database value are replaced by their ids
+        List added = new ArrayList();
+        for (Object statement : state.changes) {
+            added.add(resolveTempids(statement, speculation.ids));
+        }
+        for (Object statement : statements.subList(speculation.size, statements.size())) {
+            added.add(resolveTempids(statement, speculation.ids));
+        }
+        Map result = speculation.database.with(added);
+        Database database = (Database)result.get(Connection.DB_AFTER);
+        Map<Object, Object> ids = new HashMap<Object, Object>(speculation.ids);
+        for (Object tempid : state.newElements.keySet()) {
+            if (!ids.containsKey(tempid)) {
+                Object id = Peer.resolveTempid(database, result.get(Connection.TEMPIDS), tempid);
+                if (id != null) {
+                    ids.put(tempid, id);
+                }
+            }
+        }
+        state.speculation = new Speculation(statements.size(), database, ids);
+        state.changes.clear();
+        return state.speculation;
+    }
+
+    // Replaces the temporary ids in a statement (a map of facts or a list) by their resolved ids
+    private static Object resolveTempids(final Object statement, final Map<Object, Object> ids) {
+        if (ids.isEmpty()) {
+            return statement;
+        }
+        if (statement instanceof Map) {
+            Map resolved = new HashMap();
+            for (Object fact : ((Map)statement).entrySet()) {
+                Object value = ((Map.Entry)fact).getValue();
+                resolved.put(((Map.Entry)fact).getKey(), ids.containsKey(value) ? ids.get(value) : value);
+            }
+            return resolved;
+        }
+        if (statement instanceof List) {
+            List resolved = new ArrayList();
+            for (Object value : (List)statement) {
+                resolved.add(ids.containsKey(value) ? ids.get(value) : value);
+            }
+            return resolved;
+        }
+        return statement;
+    }
+
+    // Removes the pending facts of an element that gets retracted in its totality, as they would otherwise be asserted again after the retraction
+    private void discardPendingFacts(final Object id) {
+        TransactionState state = txState.get();
+        Map facts = state.assertions.remove(id);
+        if (facts != null) {
+            tx.get().remove(facts);
+        }
+        Iterator<Map.Entry<List, Object>> retractionsIt = state.retractions.entrySet().iterator();
+        while (retractionsIt.hasNext()) {
+            Map.Entry<List, Object> retraction = retractionsIt.next();
+            if (id.equals(retraction.getKey().get(0))) {
+                tx.get().remove(retraction.getValue());
+                retractionsIt.remove();
+            }
+        }
+        state.speculation = null;
     }
 
     private void removeEdge(final Edge edge, boolean transact) {
-        // Retract the edge element in its totality
         FluxEdge theEdge =  (FluxEdge)edge;
-        tx.get().add(Util.list(":db.fn/retractEntity", theEdge.getId()));
 
         // Get the in and out vertex (as their version also needs to be updated)
         FluxVertex inVertex = (FluxVertex)theEdge.getVertex(Direction.IN);
         FluxVertex outVertex = (FluxVertex)theEdge.getVertex(Direction.OUT);
 
-        // Update the transaction info of the edge and both vertices (moving up their current transaction)
-        addTransactionInfo(theEdge, inVertex, outVertex);
+        // Maintain the degrees of both vertices (if kept)
+        adjustDegree(outVertex.getId(), Direction.OUT, theEdge.getLabel(), -1);
+        adjustDegree(inVertex.getId(), Direction.IN, theEdge.getLabel(), -1);
+
+        if (theEdge.isNew()) {
+            // The edge was created in this transaction, simply forget about it
+            discardNewElement(theEdge);
+        }
+        else {
+            // Retract the edge element in its totality
+            discardPendingFacts(theEdge.getId());
+            addToTransaction(Util.list(":db.fn/retractEntity", theEdge.getId()));
+            txState.get().removedElements.add(theEdge.getId());
+            // Update the transaction info of the edge
+            addTransactionInfo(theEdge);
+        }
+
+        // Update the transaction info of both vertices (moving up their current transaction)
+        addTransactionInfo(inVertex, outVertex);
 
-        // We need to commit
         if (transact) {
-            transact();
+            autoCommit();
         }
     }
 
@@ -398,15 +1185,22 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
         while (edgesIt.hasNext()) {
             removeEdge(edgesIt.next(), false);
         }
-        // Retract the vertex element in its totality
-        tx.get().add(Util.list(":db.fn/retractEntity", vertex.getId()));
-
-        // Update the transaction info of the vertex
-        addTransactionInfo((FluxVertex)vertex);
+        FluxVertex theVertex = (FluxVertex)vertex;
+        if (theVertex.isNew()) {
+            // The vertex was created in this transaction, simply forget about it
+            discardNewElement(theVertex);
+        }
+        else {
+            // Retract the vertex element in its totality
+            discardPendingFacts(theVertex.getId());
+            addToTransaction(Util.list(":db.fn/retractEntity", theVertex.getId()));
+            txState.get().removedElements.add(theVertex.getId());
+            // Update the transaction info of the vertex
+            addTransactionInfo(theVertex);
+        }
 
-        // We need to commit
         if (transact) {
-            transact();
+            autoCommit();
         }
     }
 
@@ -417,6 +1211,82 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
                        ":where [?entity :db/ident :graph.element/type] ] ", getRawGraph()).iterator().hasNext();
     }
 
+    // Retrieve the version of the meta model of the graph (graphs that were set up before the meta model got versioned are version 1)
+    protected long getMetaModelVersion() {
+        Database database = connection.db();
+        if (database.entid(":graph.meta/version") == null || database.entid(":graph/meta") == null) {
+            return 1;
+        }
+        Object version = database.entity(":graph/meta").get(":graph.meta/version");
+        return version != null ? (Long)version : 1;
+    }
+
+    // Upgrades the meta model of a graph that was set up by a previous version of FluxGraph to the current version
+    protected void upgradeMetaModel() throws ExecutionException, InterruptedException {
+        long version = getMetaModelVersion();
+        if (connection.db().entid(":graph.meta/version") == null) {
+            connection.transact(Util.list(getMetaModelVersionDefinition())).get();
+        }
+        // Version 2: vertices and edges no longer have an ident
+        if (version < 2) {
+            removeElementIdents();
+        }
+        // Version 3: indexes are marked as complete and the vertex-centric indexes and degrees are maintained by database functions. The existing
+        // indexes are completed again, as edges that were added concurrently with their creation might be missing
+        if (version < 3) {
+            List statements = new ArrayList();
+            if (connection.db().entid(":graph.index/complete") == null) {
+                statements.add(FluxUtil.getIndexCompleteDefinition());
+            }
+            if (connection.db().entid(FluxUtil.INDEX_EDGE) == null) {
+                statements.add(FluxUtil.getIndexEdgeFunction());
+            }
+            if (connection.db().entid(FluxUtil.ADJUST_DEGREES) == null) {
+                statements.add(FluxUtil.getAdjustDegreesFunction());
+            }
+            if (!statements.isEmpty()) {
+                connection.transact(statements).get();
+            }
+            for (List<Object> attribute : Peer.q("[:find ?ident " +
+                                                  ":in $ " +
+                                                  ":where [?attribute :db/valueType _] " +
+                                                         "[?attribute :db/ident ?ident] ]", connection.db())) {
+                Keyword ident = (Keyword)attribute.get(0);
+                if ("graph.edge.out".equals(ident.getNamespace())) {
+                    createLabelIndex(ident.getName());
+                }
+                else if (ident.equals(FluxUtil.createDegreeKey(null, Direction.OUT))) {
+                    createDegreeIndex(null);
+                }
+                else if ("graph.vertex.outDegree".equals(ident.getNamespace())) {
+                    createDegreeIndex(ident.getName());
+                }
+            }
+        }
+        connection.transact(Util.list(getMetaModelVersionFact())).get();
+    }
+
+    // The attribute that keeps the version of the meta model
+    private Map getMetaModelVersionDefinition() {
+        return Util.map(":db/id", Peer.tempid(":db.part/db"),
+                        ":db/ident", ":graph.meta/version",
+                        ":db/valueType", ":db.type/long",
+                        ":db/cardinality", ":db.cardinality/one",
+                        ":db/doc", "The version of the meta model of the graph",
+                        ":db.install/_attribute", ":db.part/db");
+    }
+
+    // Sets the version of the meta model to the current version
+    private Map getMetaModelVersionFact() {
+        if (connection.db().entid(":graph/meta") != null) {
+            return Util.map(":db/id", ":graph/meta",
+                            ":graph.meta/version", META_MODEL_VERSION);
+        }
+        return Util.map(":db/id", Peer.tempid(":db.part/user"),
+                        ":db/ident", ":graph/meta",
+                        ":graph.meta/version", META_MODEL_VERSION);
+    }
+
     // Setup of the various attribute types required for FluxGraph
     protected void setupMetaModel() throws ExecutionException, InterruptedException {
 
@@ -504,9 +1374,51 @@ public class FluxGraph implements MetaGraph<Database>, KeyIndexableGraph, TimeAw
                               ":db/ident", ":graph",
                               ":db.install/_partition", ":db.part/db"));
 
+        // The version of the meta model
+        tx.get().add(getMetaModelVersionDefinition());
+
+        // The marker of the complete indexes and the database functions that maintain the vertex-centric indexes and the degrees
+        tx.get().add(FluxUtil.getIndexCompleteDefinition());
+        tx.get().add(FluxUtil.getIndexEdgeFunction());
+        tx.get().add(FluxUtil.getAdjustDegreesFunction());
+
         tx.get().add(datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", new Date(0)));
         connection.transact(tx.get()).get();
         tx.get().clear();
+
+        // The version attribute can only be used once it is installed
+        connection.transact(Util.list(getMetaModelVersionFact(),
+                                      datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", new Date(0)))).get();
+    }
+
+    // Bookkeeping of the pending transaction of a thread
+    protected static class TransactionState {
+        protected final Map<Object, FluxElement> newElements = new LinkedHashMap<Object, FluxElement>();
+        protected final Map<Object, Map> assertions = new HashMap<Object, Map>();
+        protected final Map<List, Object> retractions = new HashMap<List, Object>();
+        protected final Set<Object> versionedElements = new HashSet<Object>();
+        protected final Set<Object> removedElements = new HashSet<Object>();
+        protected final Map<List, Long> degrees = new HashMap<List, Long>();
+        // The statement that maintains the vertex-centric index for each new edge
+        protected final Map<Object, List> indexedEdges = new HashMap<Object, List>();
+        protected Speculation speculation;
+        // Facts that were added to statements that might already be part of the speculative database value
+        protected final List changes = new ArrayList();
+    }
+
+    // Speculative database value (obtained through Database.with) for the first statements of the pending transaction of a thread
+    protected static class Speculation {
+        protected final int size;
+        protected final Database database;
+        // The ids of the newly created elements in the speculative database value
+        protected final Map<Object, Object> ids;
+        protected Map<Object, Object> elementIds;
+
+        protected Speculation(final int size, final Database database, final Map<Object, Object> ids) {
+            this.size = size;
+            this.database = database;
+            this.ids = ids;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package com.jnj.fluxgraph;
+
+import com.tinkerpop.blueprints.*;
+import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+import com.tinkerpop.blueprints.util.StringFactory;
+import datomic.Database;
+import datomic.Datom;
+import datomic.Peer;
+
+import java.util.*;
+
+/**
+ * Graph query that compiles its comparison predicates into a single Datalog query over the typed attributes of the elements.
+ * Multiple clauses are ordered by their estimated selectivity: clauses on indexed attributes are estimated through a short, bounded walk
+ * of the AVET index and evaluated first, the other clauses are intersected afterwards. A single clause is evaluated without an estimate.
+ * The remaining predicates are evaluated on the (cached) decoded facts of the resulting elements.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxGraphQuery extends DefaultGraphQuery {
+
+    // Maximum number of datoms that is walked to estimate the selectivity of a clause
+    private static final int SELECTIVITY_SAMPLE = 1000;
+
+    private final FluxGraph fluxGraph;
+
+    public FluxGraphQuery(final FluxGraph graph) {
+        super(graph);
+        this.fluxGraph = graph;
+    }
+
+    @Override
+    public Iterable<Edge> edges() {
+        return getElements(Edge.class);
+    }
+
+    @Override
+    public Iterable<Vertex> vertices() {
+        return getElements(Vertex.class);
+    }
+
+    private <T extends Element> Iterable<T> getElements(final Class<T> clazz) {
+        Iterable<T> elements;
+        if (getIndexedContainers().isEmpty()) {
+            elements = (Iterable<T>)(clazz.equals(Vertex.class) ? fluxGraph.getVertices() : fluxGraph.getEdges());
+        }
+        else {
+            elements = new FluxIterable<T>(queryElements(clazz), fluxGraph, fluxGraph.getElementDatabase(), clazz);
+        }
+        final List<HasContainer> filters = getFilters();
+        if (filters.isEmpty() && limit == Integer.MAX_VALUE) {
+            return elements;
+        }
+        return new FluxFilterIterable<T>(elements, limit) {
+            @Override
+            protected boolean isLegal(final T element) {
+                for (HasContainer hasContainer : filters) {
+                    if (!hasContainer.isLegal(element)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    // Compiles the comparison predicates into one Datalog query, starting with the most selective clause
+    private Collection<List<Object>> queryElements(final Class<? extends Element> clazz) {
+        final Database database = fluxGraph.getRawGraph();
+        List<Clause> clauses = new ArrayList<Clause>();
+        for (HasContainer hasContainer : getIndexedContainers()) {
+            Object attribute;
+            if (clazz.equals(Edge.class) && hasContainer.key.equals(StringFactory.LABEL)) {
+                attribute = fluxGraph.GRAPH_EDGE_LABEL;
+            }
+            else {
+                attribute = FluxUtil.getAttributeDefinition(hasContainer.key, hasContainer.value.getClass(), clazz, fluxGraph);
+            }
+            if (attribute == null) {
+                // None of the elements can have a value of this type for the key
+                return Collections.emptyList();
+            }
+            clauses.add(new Clause(attribute, FluxUtil.getDatalogOperator(hasContainer.predicate, hasContainer.value),
+                                   FluxUtil.getDatalogValue(hasContainer.value)));
+        }
+        // The order of the clauses only matters if there is more than one clause
+        if (clauses.size() > 1) {
+            for (Clause clause : clauses) {
+                clause.estimate(database);
+            }
+            Collections.sort(clauses);
+        }
+        StringBuilder in = new StringBuilder(":in $ ?type ");
+        StringBuilder where = new StringBuilder(":where ");
+        List<Object> inputs = new ArrayList<Object>();
+        inputs.add(database);
+        inputs.add(clazz.equals(Vertex.class) ? fluxGraph.GRAPH_ELEMENT_TYPE_VERTEX : fluxGraph.GRAPH_ELEMENT_TYPE_EDGE);
+        for (int i = 0; i < clauses.size(); i++) {
+            Clause clause = clauses.get(i);
+            in.append("?attribute").append(i).append(" ?value").append(i).append(" ");
+            inputs.add(clause.attribute);
+            inputs.add(clause.value);
+            if (clause.operator.equals("=")) {
+                where.append("[?element ?attribute").append(i).append(" ?value").append(i).append("] ");
+            }
+            else {
+                where.append("[?element ?attribute").append(i).append(" ?property").append(i).append("] ");
+                where.append("[(").append(clause.operator).append(" ?property").append(i).append(" ?value").append(i).append(")] ");
+            }
+        }
+        where.append("[?element :graph.element/type ?type] ]");
+        return Peer.q("[:find ?element " + in + where, inputs.toArray());
+    }
+
+    // Comparison predicates on values of a supported type can be evaluated by Datomic. The id is not stored as an attribute of the element,
+    // hence it is evaluated on the elements themselves
+    private boolean isIndexed(final HasContainer hasContainer) {
+        return !hasContainer.key.equals(StringFactory.ID) && FluxUtil.getDatalogOperator(hasContainer.predicate, hasContainer.value) != null;
+    }
+
+    private List<HasContainer> getIndexedContainers() {
+        List<HasContainer> indexed = new ArrayList<HasContainer>();
+        for (HasContainer hasContainer : hasContainers) {
+            if (isIndexed(hasContainer)) {
+                indexed.add(hasContainer);
+            }
+        }
+        return indexed;
+    }
+
+    private List<HasContainer> getFilters() {
+        List<HasContainer> filters = new ArrayList<HasContainer>();
+        for (HasContainer hasContainer : hasContainers) {
+            if (!isIndexed(hasContainer)) {
+                filters.add(hasContainer);
+            }
+        }
+        return filters;
+    }
+
+    // A comparison of an attribute with a value, together with its estimated number of matching datoms
+    private static class Clause implements Comparable<Clause> {
+        private final Object attribute;
+        private final String operator;
+        private final Object value;
+        private long selectivity;
+
+        private Clause(final Object attribute, final String operator, final Object value) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        // Counts the matching datoms in the AVET index (up to the sample size). Attributes that are not indexed can only be scanned
+        private void estimate(final Database database) {
+            if (!Boolean.TRUE.equals(database.entity(attribute).get(":db/index"))) {
+                selectivity = Long.MAX_VALUE;
+                return;
+            }
+            Iterable<Datom> datoms;
+            if (operator.equals("=")) {
+                datoms = database.datoms(Database.AVET, attribute, value);
+            }
+            else if (operator.startsWith(">")) {
+                datoms = database.indexRange(attribute, value, null);
+            }
+            else {
+                datoms = database.indexRange(attribute, null, value);
+            }
+            long count = 0;
+            for (Iterator<Datom> datomsIt = datoms.iterator(); datomsIt.hasNext() && count < SELECTIVITY_SAMPLE; datomsIt.next()) {
+                count++;
+            }
+            selectivity = count;
+        }
+
+        @Override
+        public int compareTo(final Clause clause) {
+            return selectivity < clause.selectivity ? -1 : (selectivity == clause.selectivity ? 0 : 1);
+        }
+    }
+
+}
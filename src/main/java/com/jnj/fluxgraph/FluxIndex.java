@@ -2,13 +2,12 @@ package com.jnj.fluxgraph;
 
 import clojure.lang.Keyword;
 import com.tinkerpop.blueprints.*;
+import com.tinkerpop.blueprints.util.MultiIterable;
 import datomic.Database;
+import datomic.Datom;
 import datomic.Peer;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Davy Suvee (http://datablend.be)
@@ -86,9 +85,21 @@ public class FluxIndex<T extends Element> implements Index<T> {
         }
     }
 
+    // Retrieve the elements whose (fulltext indexed) string value of the key matches the query. The fulltext search is evaluated as a
+    // Datalog query, hence the matching elements are collected at once before they are iterated (the iteration is not lazy)
     @Override
-    public CloseableIterable<T> query(String key, Object query) {
-        throw new UnsupportedOperationException();
+    public CloseableIterable<T> query(final String key, final Object query) {
+        Object attribute = getAttribute(key, "");
+        if (attribute == null) {
+            return getEmptyIterable();
+        }
+        if (!FluxUtil.isFulltextAttribute(attribute, getDatabase())) {
+            throw new IllegalArgumentException("Property " + key + " does not have a fulltext index");
+        }
+        Collection<List<Object>> elements = Peer.q("[:find ?element " +
+                                                    ":in $ ?attribute ?query " +
+                                                    ":where [(fulltext $ ?attribute ?query) [[?element]]] ]", getDatabase(), attribute, query.toString());
+        return new FluxIterable(elements, graph, database, getElementClass());
     }
 
     public long count(final String key, final Object value) {
@@ -101,23 +112,186 @@ public class FluxIndex<T extends Element> implements Index<T> {
             attribute = FluxUtil.createKey(key, value.getClass(), clazz);
         }
         if (matched && FluxUtil.existingAttributeDefinition(attribute, graph)) {
-            if (this.getIndexClass().isAssignableFrom(FluxVertex.class)) {
-                return getElements(attribute, value, Keyword.intern("graph.element.type/vertex"), getDatabase()).size();
+            // The attributes are specific for the element type, hence the datoms can be counted in place
+            final Object datalogValue = FluxUtil.getDatalogValue(value);
+            Database database = getDatabase();
+            Object attributeId = graph.getSchema().getAttribute(attribute);
+            if (isIndexed(attributeId, database)) {
+                return FluxUtil.count(database.datoms(Database.AVET, attributeId, datalogValue));
             }
-            if (this.getIndexClass().isAssignableFrom(FluxEdge.class)) {
-                return getElements(attribute, value, Keyword.intern("graph.element.type/edge"), getDatabase()).size();
-            }
-            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
+            return FluxUtil.count(new FluxFilterIterable<Datom>(database.datoms(Database.AEVT, attributeId), Integer.MAX_VALUE) {
+                @Override
+                protected boolean isLegal(final Datom datom) {
+                    return datalogValue.equals(datom.v());
+                }
+            });
         }
         else {
             return 0;
         }
     }
 
+    // Counts the elements that have a value (of any type) for the key, without creating the elements
+    public long count(final String key) {
+        if ((indexKeys != null) && !indexKeys.contains(key)) {
+            return 0;
+        }
+        Database database = getDatabase();
+        long count = 0;
+        for (Object attribute : getAttributes(key)) {
+            count += FluxUtil.count(database.datoms(Database.AEVT, attribute));
+        }
+        return count;
+    }
+
+    // Retrieve the elements for which the value of the key compares to the value. On an indexed key, the elements are streamed from
+    // an AVET index range. Otherwise, the datoms of the attribute are scanned
+    public CloseableIterable<T> query(final String key, final Compare compare, final Object value) {
+        final Object attribute = getAttribute(key, value);
+        if (attribute == null) {
+            return getEmptyIterable();
+        }
+        final Object datalogValue = FluxUtil.getDatalogValue(value);
+        Database database = getDatabase();
+        if (!isIndexed(attribute, database)) {
+            return new FluxIterable(new FluxFilterIterable<Datom>(database.datoms(Database.AEVT, attribute), Integer.MAX_VALUE) {
+                @Override
+                protected boolean isLegal(final Datom datom) {
+                    return compare.evaluate(datom.v(), datalogValue);
+                }
+            }, graph, this.database, getElementClass());
+        }
+        Iterable<Datom> datoms;
+        switch (compare) {
+            case EQUAL:
+                datoms = database.datoms(Database.AVET, attribute, datalogValue);
+                break;
+            case NOT_EQUAL:
+                datoms = new MultiIterable<Datom>(Arrays.asList(database.indexRange(attribute, null, datalogValue),
+                                                                excludeValue(database.indexRange(attribute, datalogValue, null), datalogValue)));
+                break;
+            case GREATER_THAN:
+                datoms = excludeValue(database.indexRange(attribute, datalogValue, null), datalogValue);
+                break;
+            case GREATER_THAN_EQUAL:
+                datoms = database.indexRange(attribute, datalogValue, null);
+                break;
+            case LESS_THAN:
+                datoms = database.indexRange(attribute, null, datalogValue);
+                break;
+            case LESS_THAN_EQUAL:
+                datoms = new MultiIterable<Datom>(Arrays.asList(database.indexRange(attribute, null, datalogValue),
+                                                                database.datoms(Database.AVET, attribute, datalogValue)));
+                break;
+            default:
+                throw new IllegalArgumentException("Comparison " + compare + " is not supported");
+        }
+        return new FluxIterable(datoms, graph, this.database, getElementClass());
+    }
+
+    // Retrieve the elements for which the value of the key lies within the interval (start inclusive, end exclusive)
+    public CloseableIterable<T> interval(final String key, final Object start, final Object end) {
+        final Object attribute = getAttribute(key, start);
+        if (attribute == null) {
+            return getEmptyIterable();
+        }
+        final Object datalogStart = FluxUtil.getDatalogValue(start);
+        final Object datalogEnd = FluxUtil.getDatalogValue(end);
+        Database database = getDatabase();
+        if (!isIndexed(attribute, database)) {
+            return new FluxIterable(new FluxFilterIterable<Datom>(database.datoms(Database.AEVT, attribute), Integer.MAX_VALUE) {
+                @Override
+                protected boolean isLegal(final Datom datom) {
+                    return Compare.GREATER_THAN_EQUAL.evaluate(datom.v(), datalogStart) && Compare.LESS_THAN.evaluate(datom.v(), datalogEnd);
+                }
+            }, graph, this.database, getElementClass());
+        }
+        return new FluxIterable(database.indexRange(attribute, datalogStart, datalogEnd), graph, this.database, getElementClass());
+    }
+
+    // Retrieve the elements for which the (string) value of the key starts with the prefix
+    public CloseableIterable<T> prefix(final String key, final String prefix) {
+        final Object attribute = getAttribute(key, prefix);
+        if (attribute == null) {
+            return getEmptyIterable();
+        }
+        Database database = getDatabase();
+        if (!isIndexed(attribute, database)) {
+            return new FluxIterable(new FluxFilterIterable<Datom>(database.datoms(Database.AEVT, attribute), Integer.MAX_VALUE) {
+                @Override
+                protected boolean isLegal(final Datom datom) {
+                    return ((String)datom.v()).startsWith(prefix);
+                }
+            }, graph, this.database, getElementClass());
+        }
+        return new FluxIterable(database.indexRange(attribute, prefix, getPrefixEnd(prefix)), graph, this.database, getElementClass());
+    }
+
+    // Retrieve the first string that sorts after all strings starting with the prefix: the prefix with its last character incremented (characters
+    // that can not be incremented are dropped). Null if there is no such string, in which case the range is open-ended
+    private static String getPrefixEnd(final String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            if (prefix.charAt(i) != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char)(prefix.charAt(i) + 1);
+            }
+        }
+        return null;
+    }
+
     public void remove(final String key, final Object value, final T element) {
         throw new UnsupportedOperationException();
     }
 
+    // Retrieve the attribute in which the values of a key with the type of the value are stored (null if the key is not part of this index)
+    private Object getAttribute(final String key, final Object value) {
+        if ((indexKeys != null) && !indexKeys.contains(key)) {
+            return null;
+        }
+        if ((this.getIndexClass().isAssignableFrom(FluxEdge.class)) && ("label".equals(key))) {
+            return graph.GRAPH_EDGE_LABEL;
+        }
+        return FluxUtil.getAttributeDefinition(key, value.getClass(), clazz, graph);
+    }
+
+    // Retrieve the attributes in which the values of a key are stored (one for each value type)
+    private List<Object> getAttributes(final String key) {
+        List<Object> attributes = new ArrayList<Object>();
+        if ((this.getIndexClass().isAssignableFrom(FluxEdge.class)) && ("label".equals(key))) {
+            attributes.add(graph.GRAPH_EDGE_LABEL);
+            return attributes;
+        }
+        for (Class valueClazz : FluxUtil.getSupportedTypes()) {
+            Object attribute = FluxUtil.getAttributeDefinition(key, valueClazz, clazz, graph);
+            if (attribute != null && !attributes.contains(attribute)) {
+                attributes.add(attribute);
+            }
+        }
+        return attributes;
+    }
+
+    // Only indexed attributes are part of the AVET index
+    private boolean isIndexed(final Object attribute, final Database database) {
+        return Boolean.TRUE.equals(database.entity(attribute).get(":db/index"));
+    }
+
+    private Class<? extends Element> getElementClass() {
+        return this.getIndexClass().isAssignableFrom(FluxEdge.class) ? Edge.class : Vertex.class;
+    }
+
+    private CloseableIterable<T> getEmptyIterable() {
+        return new FluxIterable(new ArrayList<List<Object>>(), graph, database, getElementClass());
+    }
+
+    // Skips the datoms of an index range with a particular value (these are at the start of the range)
+    private Iterable<Datom> excludeValue(final Iterable<Datom> datoms, final Object value) {
+        return new FluxFilterIterable<Datom>(datoms, Integer.MAX_VALUE) {
+            @Override
+            protected boolean isLegal(final Datom datom) {
+                return !value.equals(datom.v());
+            }
+        };
+    }
+
     private Collection<List<Object>> getElements(Keyword attribute, Object value, Keyword type, Database database) {
         return Peer.q("[:find ?element " +
                        ":in $ ?attribute ?value ?type " +
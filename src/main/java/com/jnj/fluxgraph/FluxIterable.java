@@ -20,6 +20,12 @@ public class FluxIterable<T extends Element> implements CloseableIterable<T> {
     private final FluxGraph graph;
     private final Database database;
     private Class<T> clazz;
+    // Direction of the adjacency lookup that produced the edges (null if the elements are not the result of an adjacency lookup)
+    private Direction direction;
+    // Label of the edges (if known from the adjacency lookup)
+    private String label;
+    // Returns the same element instance for each iteration step (pointed at the next id) instead of creating a new element
+    private boolean reuseElements = false;
 
     private FluxIterable(final FluxGraph graph, final Database database, final Class<T> clazz) {
         this.graph = graph;
@@ -42,6 +48,31 @@ public class FluxIterable<T extends Element> implements CloseableIterable<T> {
         this.ids = ids;
     }
 
+    // Edges found through the AVET datoms of the vertex attribute of the specified direction
+    public FluxIterable(final Iterable<Datom> datoms, final FluxGraph graph, final Database database, final Direction direction) {
+        this(datoms, graph, database, direction, null);
+    }
+
+    // Edges with a particular label found through the AVET datoms of the vertex attribute (or vertex-centric index) of the specified direction
+    public FluxIterable(final Iterable<Datom> datoms, final FluxGraph graph, final Database database, final Direction direction, final String label) {
+        this(datoms, graph, database, (Class<T>)Edge.class);
+        this.direction = direction;
+        this.label = label;
+    }
+
+    // Edges found through a query returning the edge, its label, its outgoing vertex and its incoming vertex
+    public FluxIterable(final Collection<List<Object>> objects, final FluxGraph graph, final Database database, final Direction direction) {
+        this(objects, graph, database, (Class<T>)Edge.class);
+        this.direction = direction;
+    }
+
+    // Lets the iterators of this iterable reuse a single element for the existing elements. An element that is returned by the iterator is only
+    // valid until the next element is requested, hence it should not be kept (nor be used to modify the graph)
+    public FluxIterable<T> setReuseElements(final boolean reuseElements) {
+        this.reuseElements = reuseElements;
+        return this;
+    }
+
     public Iterator<T> iterator() {
         if (datoms != null) {
             return new DatomicDatomIterator();
@@ -61,18 +92,44 @@ public class FluxIterable<T extends Element> implements CloseableIterable<T> {
 
     private abstract class DatomicIterator implements Iterator<T> {
 
+        // The element that is pointed at the next id (if elements are reused)
+        private FluxElement element;
+
         protected abstract Object getNext();
 
+        // Carries the facts of the edge that are known from the adjacency lookup forward into the edge
+        protected void prefetch(final FluxEdge edge) {
+        }
+
         public T next() {
             Object object = getNext();
             T ret = null;
-            if (clazz == Vertex.class) {
+            // Elements of the current version of the graph might have been created in the pending transaction
+            if (database == null) {
+                ret = (T) graph.getNewElement(graph.getElementId(object));
+            }
+            if (ret != null) {
+                return ret;
+            } else if (reuseElements && element != null) {
+                element.reset(object);
+                if (direction != null) {
+                    prefetch((FluxEdge)element);
+                }
+                return (T) element;
+            } else if (clazz == Vertex.class) {
                 ret = (T) new FluxVertex(graph, database, object);
             } else if (clazz == Edge.class) {
-                ret = (T) new FluxEdge(graph, database, object);
+                FluxEdge edge = new FluxEdge(graph, database, object);
+                if (direction != null) {
+                    prefetch(edge);
+                }
+                ret = (T) edge;
             } else {
                 throw new IllegalStateException();
             }
+            if (reuseElements) {
+                element = (FluxElement) ret;
+            }
             return ret;
         }
 
@@ -85,13 +142,25 @@ public class FluxIterable<T extends Element> implements CloseableIterable<T> {
     // Iterator for datomic datoms
     private class DatomicDatomIterator extends DatomicIterator {
         private Iterator<Datom> iterator = datoms.iterator();
+        private Datom current;
 
         public boolean hasNext() {
             return iterator.hasNext();
         }
 
         protected Object getNext() {
-            return iterator.next().e();
+            current = iterator.next();
+            return current.e();
+        }
+
+        @Override
+        protected void prefetch(final FluxEdge edge) {
+            if (direction.equals(Direction.OUT)) {
+                edge.prefetch(label, current.v(), null);
+            }
+            else {
+                edge.prefetch(label, null, current.v());
+            }
         }
 
     }
@@ -99,13 +168,20 @@ public class FluxIterable<T extends Element> implements CloseableIterable<T> {
     // Iterator for datomic query results
     private class DatomicQueryIterator extends DatomicIterator {
         private Iterator<List<Object>> iterator = objects.iterator();
+        private List<Object> current;
 
         public boolean hasNext() {
             return iterator.hasNext();
         }
 
         protected Object getNext() {
-            return iterator.next().get(0);
+            current = iterator.next();
+            return current.get(0);
+        }
+
+        @Override
+        protected void prefetch(final FluxEdge edge) {
+            edge.prefetch((String)current.get(1), current.get(2), current.get(3));
         }
 
     }
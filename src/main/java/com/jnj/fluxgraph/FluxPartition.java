@@ -0,0 +1,114 @@
+package com.jnj.fluxgraph;
+
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Vertex;
+import datomic.Database;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A range of consecutive element ids of a single database value. The partitions of a scan are disjoint and together cover all
+ * vertices (or edges) of the database value, hence they can be iterated by different threads while returning a consistent result.
+ * The elements of a partition are read from the database value the partition was created for. Changes to the graph should
+ * be made through the elements retrieved from the graph (using the transaction of the thread that processes the partition).
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxPartition<T extends Element> implements Iterable<T> {
+
+    private final FluxGraph graph;
+    private final Database database;
+    private final Class<T> clazz;
+    private final long[] ids;
+    private final int from;
+    private final int to;
+
+    private FluxPartition(final FluxGraph graph, final Database database, final Class<T> clazz, final long[] ids, final int from, final int to) {
+        this.graph = graph;
+        this.database = database;
+        this.clazz = clazz;
+        this.ids = ids;
+        this.from = from;
+        this.to = to;
+    }
+
+    // Splits the (sorted) ids of the elements of a database value into at most the requested number of partitions of (nearly) equal size
+    static <T extends Element> List<FluxPartition<T>> split(final FluxGraph graph, final Database database, final Class<T> clazz, final long[] ids, final int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("The number of partitions should be strictly positive");
+        }
+        List<FluxPartition<T>> result = new ArrayList<FluxPartition<T>>();
+        int count = Math.min(partitions, Math.max(1, ids.length));
+        for (int i = 0; i < count; i++) {
+            int from = (int)((long)ids.length * i / count);
+            int to = (int)((long)ids.length * (i + 1) / count);
+            result.add(new FluxPartition<T>(graph, database, clazz, ids, from, to));
+        }
+        return result;
+    }
+
+    // The database value the partition was created for
+    public Database getDatabase() {
+        return database;
+    }
+
+    // The first id of the partition (inclusive)
+    public long getStartId() {
+        return from < to ? ids[from] : Long.MIN_VALUE;
+    }
+
+    // The last id of the partition (inclusive)
+    public long getEndId() {
+        return from < to ? ids[to - 1] : Long.MIN_VALUE;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    // Iterates the ids of the partition without creating the elements
+    public LongIterator ids() {
+        return new LongIterator() {
+            private int index = from;
+
+            @Override
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            @Override
+            public long next() {
+                if (index >= to) {
+                    throw new NoSuchElementException();
+                }
+                return ids[index++];
+            }
+        };
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final LongIterator idsIt = ids();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return idsIt.hasNext();
+            }
+
+            @Override
+            public T next() {
+                long id = idsIt.next();
+                return (T)(clazz.equals(Vertex.class) ? new FluxVertex(graph, database, id) : new FluxEdge(graph, database, id));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
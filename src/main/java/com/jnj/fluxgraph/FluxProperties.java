@@ -0,0 +1,90 @@
+package com.jnj.fluxgraph;
+
+import clojure.lang.Keyword;
+import datomic.Database;
+import datomic.Datom;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decoded view on the facts of an element in a particular database value. The view is built from a single scan of the
+ * EAVT index: each datom is decoded once into its Blueprints property key, the attribute it is stored in and its value.
+ * The label and vertices of an edge are captured by the same scan. An element exists in the database value if the scan
+ * returned at least one datom. A view never changes once it is built, hence it can be shared between threads.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxProperties {
+
+    private final boolean exists;
+    private final Map<String, Keyword> attributes = new HashMap<String, Keyword>();
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private String label;
+    private Object outVertex;
+    private Object inVertex;
+
+    public FluxProperties(final FluxGraph graph, final Database database, final Object id) {
+        FluxSchema schema = graph.getSchema();
+        boolean found = false;
+        for (Datom datom : database.datoms(Database.EAVT, id)) {
+            found = true;
+            Object attributeId = datom.a();
+            if (graph.GRAPH_EDGE_LABEL.equals(attributeId)) {
+                label = (String)datom.v();
+            }
+            else if (graph.GRAPH_EDGE_OUT_VERTEX.equals(attributeId)) {
+                outVertex = datom.v();
+            }
+            else if (graph.GRAPH_EDGE_IN_VERTEX.equals(attributeId)) {
+                inVertex = datom.v();
+            }
+            else {
+                Keyword attribute = schema.getIdent(attributeId, database);
+                String key = attribute != null ? schema.getPropertyName(attribute) : null;
+                if (key != null) {
+                    attributes.put(key, attribute);
+                    values.put(key, datom.v());
+                }
+            }
+        }
+        this.exists = found;
+    }
+
+    // Returns true if the element has at least one fact in the database value
+    public boolean exists() {
+        return exists;
+    }
+
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    // Retrieve the value of a property (null if the property is not set)
+    public Object getValue(final String key) {
+        return values.get(key);
+    }
+
+    // Retrieve the attribute under which a property is stored (null if the property is not set)
+    public Keyword getAttribute(final String key) {
+        return attributes.get(key);
+    }
+
+    // The label of an edge (null for vertices)
+    public String getLabel() {
+        return label;
+    }
+
+    // The id of the outgoing vertex of an edge (null for vertices)
+    public Object getOutVertex() {
+        return outVertex;
+    }
+
+    // The id of the incoming vertex of an edge (null for vertices)
+    public Object getInVertex() {
+        return inVertex;
+    }
+
+}
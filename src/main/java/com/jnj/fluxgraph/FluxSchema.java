@@ -0,0 +1,163 @@
+package com.jnj.fluxgraph;
+
+import clojure.lang.Keyword;
+import datomic.Connection;
+import datomic.Database;
+import datomic.Datom;
+import datomic.Peer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe, in-process catalog of the attributes that are installed in the Datomic database.
+ * The catalog is loaded once at startup and kept fresh through the schema changes that are seen on the transaction report queue.
+ * Attributes that are not (yet) known are resolved through the in-memory ident lookup of the latest database value, so
+ * property writes and index lookups never require a schema query.
+ * The catalog also keeps the t at which each index (vertex-centric label index or degree index) got complete, as an index can only be read
+ * in the database values that contain all of its facts. The facts of these indexes are only maintained by the graph once the catalog knows
+ * of at least one index of the kind, hence graphs that never create them do not call the database functions that maintain them.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxSchema implements FluxTxReportQueue.Listener {
+
+    private final Connection connection;
+    private final ConcurrentMap<Keyword, Object> attributes = new ConcurrentHashMap<Keyword, Object>();
+    private final ConcurrentMap<Object, Keyword> idents = new ConcurrentHashMap<Object, Keyword>();
+    // Blueprints property key for each attribute (an empty string for attributes that do not represent a property)
+    private final ConcurrentMap<Keyword, String> propertyNames = new ConcurrentHashMap<Keyword, String>();
+    // The t of the transaction that completed an index, by the attribute that identifies the index
+    private final ConcurrentMap<Object, Long> completedIndexes = new ConcurrentHashMap<Object, Long>();
+    // Whether any vertex-centric label index or degree index is installed (the facts of the indexes are only maintained once they are)
+    private volatile boolean labelIndexes = false;
+    private volatile boolean degreeIndexes = false;
+
+    public FluxSchema(final Connection connection) {
+        this.connection = connection;
+        // Load the attributes that are already installed
+        for (List<Object> attribute : Peer.q("[:find ?ident ?attribute " +
+                                              ":in $ " +
+                                              ":where [?attribute :db/valueType _] " +
+                                                     "[?attribute :db/ident ?ident] ]", connection.db())) {
+            addAttribute((Keyword)attribute.get(0), attribute.get(1));
+        }
+        // Load the indexes that are complete (graphs that were set up by a previous version of FluxGraph have no complete indexes yet)
+        if (connection.db().entid(":graph.index/complete") != null) {
+            for (List<Object> index : Peer.q("[:find ?attribute ?tx " +
+                                              ":in $ " +
+                                              ":where [?attribute :graph.index/complete true ?tx] ]", connection.db())) {
+                setIndexComplete(index.get(0), Peer.toT(index.get(1)));
+            }
+        }
+    }
+
+    // Retrieve the id of an attribute (null if the attribute does not exist)
+    public Object getAttribute(final Keyword ident) {
+        Object attribute = attributes.get(ident);
+        if (attribute == null) {
+            attribute = connection.db().entid(ident);
+            if (attribute != null) {
+                addAttribute(ident, attribute);
+            }
+        }
+        return attribute;
+    }
+
+    // Retrieve the id of the attribute used for a property key, value type and element type (null if the attribute does not exist)
+    public Object getAttribute(final String key, final Class valueClazz, final Class elementClazz) {
+        return getAttribute(FluxUtil.createKey(key, valueClazz, elementClazz));
+    }
+
+    // Retrieve the ident of an attribute id
+    public Keyword getIdent(final Object attribute, final Database database) {
+        Keyword ident = idents.get(attribute);
+        if (ident == null) {
+            ident = (Keyword)database.ident(attribute);
+            if (ident != null) {
+                idents.putIfAbsent(attribute, ident);
+            }
+        }
+        return ident;
+    }
+
+    // Retrieve the Blueprints property key that is stored in an attribute (null if the attribute is part of the reserved space)
+    public String getPropertyName(final Keyword ident) {
+        String propertyName = propertyNames.get(ident);
+        if (propertyName == null) {
+            propertyName = FluxUtil.isReservedKey(ident.toString()) ? null : FluxUtil.getPropertyName(ident);
+            if (propertyName == null) {
+                propertyName = "";
+            }
+            propertyNames.putIfAbsent(ident, propertyName);
+        }
+        return propertyName.length() != 0 ? propertyName : null;
+    }
+
+    // Registers a newly installed attribute
+    public void addAttribute(final Keyword ident, final Object attribute) {
+        attributes.put(ident, attribute);
+        idents.put(attribute, ident);
+        if (ident.getNamespace() != null) {
+            if (FluxUtil.isLabelIndexKey(ident)) {
+                labelIndexes = true;
+            }
+            else if (FluxUtil.isDegreeKey(ident)) {
+                degreeIndexes = true;
+            }
+        }
+    }
+
+    // Returns true if a vertex-centric index is installed for at least one label. Until then, new edges are not passed to the database function
+    // that maintains the label indexes
+    public boolean hasLabelIndexes() {
+        return labelIndexes;
+    }
+
+    // Returns true if the degrees are kept for all edges or for at least one label. Until then, the degree changes of new and removed edges are
+    // not passed to the database function that maintains the degrees
+    public boolean hasDegreeIndexes() {
+        return degreeIndexes;
+    }
+
+    // Registers the t of the transaction that completed an index
+    public void setIndexComplete(final Object attribute, final long t) {
+        Long previous = completedIndexes.putIfAbsent(attribute, t);
+        while (previous != null && previous > t && !completedIndexes.replace(attribute, previous, t)) {
+            previous = completedIndexes.get(attribute);
+        }
+    }
+
+    // Returns true if an index is complete in a database value, i.e. the database value contains the transaction that completed the index.
+    // The facts of the index are maintained by a database function for all later transactions
+    public boolean isIndexComplete(final Object attribute, final Database database) {
+        Long t = attribute != null ? completedIndexes.get(attribute) : null;
+        return t != null && FluxUtil.getT(database) >= t;
+    }
+
+    @Override
+    public void transactionReport(final Map report) {
+        Database database = (Database)report.get(Connection.DB_AFTER);
+        Object identAttribute = database.entid(Keyword.intern("db/ident"));
+        Object completeAttribute = database.entid(Keyword.intern("graph.index/complete"));
+        for (Object fact : (Iterable)report.get(Connection.TX_DATA)) {
+            Datom datom = (Datom)fact;
+            if (completeAttribute != null && completeAttribute.equals(datom.a()) && datom.added()) {
+                setIndexComplete(datom.e(), Peer.toT(datom.tx()));
+            }
+            else if (identAttribute.equals(datom.a())) {
+                Keyword ident = (Keyword)datom.v();
+                if (!datom.added()) {
+                    attributes.remove(ident, datom.e());
+                    idents.remove(datom.e(), ident);
+                }
+                else if (database.entity(datom.e()).get(":db/valueType") != null) {
+                    addAttribute(ident, datom.e());
+                }
+            }
+        }
+    }
+
+}
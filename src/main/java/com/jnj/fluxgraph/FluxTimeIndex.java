@@ -0,0 +1,153 @@
+package com.jnj.fluxgraph;
+
+import datomic.Connection;
+import datomic.Database;
+import datomic.Datom;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thread-safe, in-memory index of the instants of the transactions of a database, kept as sorted primitive arrays of transaction ids
+ * and transaction instants. The index is loaded once at startup and appended with the transactions that are seen on the transaction
+ * report queue (or that are committed by this peer). As Datomic requires the instants of subsequent transactions to be
+ * non-decreasing, both arrays are sorted and date to transaction (and transaction to date) lookups are binary searches.
+ * The index keeps the t up to which all transactions are known. A lookup of a date that might be answered by a transaction that is part of
+ * the latest database value but that is not seen on the queue yet first catches up with the recent transactions of the database.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxTimeIndex implements FluxTxReportQueue.Listener {
+
+    private final Connection connection;
+    private final Object txInstant;
+    private long[] transactions = new long[1024];
+    private long[] instants = new long[1024];
+    private int size = 0;
+    // All transactions up to this t are part of the index, the instant is the instant of the last of these transactions
+    private long basisT = -1;
+    private long basisInstant = 0;
+
+    // The index is empty until it is loaded. It should be registered on the transaction report queue before it is loaded, so no transaction
+    // is missed in between
+    public FluxTimeIndex(final Connection connection) {
+        this.connection = connection;
+        this.txInstant = connection.db().entid(":db/txInstant");
+    }
+
+    // Load the instants of the existing transactions (ordered by transaction id)
+    public void load() {
+        Database database = connection.db();
+        long instant = 0;
+        for (Datom datom : database.datoms(Database.AEVT, txInstant)) {
+            instant = Math.max(instant, add((Long)datom.e(), (Date)datom.v()));
+        }
+        advance(database.basisT(), instant);
+    }
+
+    // Retrieve the last transaction that happened at or before the date (null if there was no transaction yet at that date)
+    public Long getTransaction(final Date date) {
+        catchUp(date);
+        synchronized (this) {
+            // Index of the first transaction that happened after the date
+            int index = search(instants, date.getTime() + 1);
+            return index > 0 ? transactions[index - 1] : null;
+        }
+    }
+
+    // Retrieve the instant of a transaction (null if the transaction is not known)
+    public synchronized Date getDate(final long transaction) {
+        int index = Arrays.binarySearch(transactions, 0, size, transaction);
+        return index >= 0 ? new Date(instants[index]) : null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Adds the transaction of a report that is seen on the transaction report queue. The queue delivers all transactions in order, hence all
+    // transactions up to the report are part of the index
+    @Override
+    public void transactionReport(final Map report) {
+        advance(((Database)report.get(Connection.DB_AFTER)).basisT(), transactionCommitted(report));
+    }
+
+    // Adds the transaction of a report of a transaction that is committed by this peer (which might be seen before the earlier transactions of
+    // other peers are seen on the queue). Returns the instant of the transaction
+    public long transactionCommitted(final Map report) {
+        long instant = 0;
+        for (Datom datom : (List<Datom>)report.get(Connection.TX_DATA)) {
+            if (txInstant.equals(datom.a()) && datom.added()) {
+                instant = Math.max(instant, add((Long)datom.e(), (Date)datom.v()));
+            }
+        }
+        return instant;
+    }
+
+    // Adds the transactions of the latest database value that are not part of the index yet, if the date might be answered by one of them.
+    // As instants are non-decreasing, these transactions happened at or after the instant of the last transaction up to the t of the index
+    private void catchUp(final Date date) {
+        long t;
+        long instant;
+        synchronized (this) {
+            t = basisT;
+            instant = basisInstant;
+        }
+        Database database = connection.db();
+        if (database.basisT() <= t || date.getTime() < instant) {
+            return;
+        }
+        for (Datom datom : database.indexRange(txInstant, new Date(instant), null)) {
+            instant = Math.max(instant, add((Long)datom.e(), (Date)datom.v()));
+        }
+        advance(database.basisT(), instant);
+    }
+
+    // Moves up the t up to which all transactions are part of the index
+    private synchronized void advance(final long t, final long instant) {
+        if (t > basisT) {
+            basisT = t;
+            basisInstant = Math.max(basisInstant, instant);
+        }
+    }
+
+    // Adds a transaction (transactions that are already known are ignored, e.g. when seen both on commit and on the queue). A transaction of
+    // another peer can be seen on the queue after a later transaction that was committed by this peer, hence it is inserted at its position.
+    // Returns the instant of the transaction
+    private synchronized long add(final long transaction, final Date instant) {
+        int index = size > 0 && transaction > transactions[size - 1] ? -size - 1 : Arrays.binarySearch(transactions, 0, size, transaction);
+        if (index >= 0) {
+            return instant.getTime();
+        }
+        index = -index - 1;
+        if (size == transactions.length) {
+            transactions = Arrays.copyOf(transactions, size * 2);
+            instants = Arrays.copyOf(instants, size * 2);
+        }
+        System.arraycopy(transactions, index, transactions, index + 1, size - index);
+        System.arraycopy(instants, index, instants, index + 1, size - index);
+        transactions[index] = transaction;
+        instants[index] = instant.getTime();
+        size++;
+        return instant.getTime();
+    }
+
+    // Retrieve the index of the first instant that is at least the specified time (size if there is no such instant)
+    private int search(final long[] values, final long value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.jnj.fluxgraph;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+/**
+ * Compact representation of the time intervals of a list of elements: the start and end instants (in milliseconds) of the interval of
+ * each element are kept in primitive arrays, in the order of the elements. The end of the interval of a current version is Long.MAX_VALUE.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxTimeIntervals {
+
+    private final long[] starts;
+    private final long[] ends;
+
+    public FluxTimeIntervals(final long[] starts, final long[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("The number of starts and ends of the intervals should be equal");
+        }
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long getStart(final int index) {
+        return starts[index];
+    }
+
+    public long getEnd(final int index) {
+        return ends[index];
+    }
+
+    public Interval getInterval(final int index) {
+        return new Interval(new DateTime(starts[index]), new DateTime(ends[index]));
+    }
+
+}
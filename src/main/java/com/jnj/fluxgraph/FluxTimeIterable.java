@@ -1,10 +1,18 @@
 package com.jnj.fluxgraph;
 
 import com.tinkerpop.blueprints.*;
+import datomic.Database;
+import datomic.Peer;
 
-import java.util.Iterator;
+import java.util.*;
 
 /**
+ * Iterates the previous or next versions of an element. The transactions of all versions are retrieved at once from the version index,
+ * after which the iteration walks them without querying the linked list of transactions for each version.
+ * The built-in time range and property changed filters are evaluated on the instants of the transactions and the history of the
+ * property, hence only the versions that pass the filter are created.
+ * If the version index does not reflect the committed graph, the linked list of transactions is followed version by version.
+ *
  * @author Davy Suvee (http://datablend.be)
  */
 public class FluxTimeIterable implements CloseableIterable {
@@ -30,6 +38,15 @@ public class FluxTimeIterable implements CloseableIterable {
 
     @Override
     public Iterator iterator() {
+        FluxElement element = (FluxElement)timeAwareElement;
+        long[] transactions = element.getVersionTransactions();
+        if (transactions != null) {
+            Object timeId = element.getTimeId();
+            int position = timeId != null ? Arrays.binarySearch(transactions, (Long)timeId) : -1;
+            if (position >= 0) {
+                return new VersionIterator(element, transactions, position);
+            }
+        }
         if (forward) {
             return new ForwardTimeIterator();
         }
@@ -38,18 +55,104 @@ public class FluxTimeIterable implements CloseableIterable {
         }
     }
 
-    private class BackwardTimeIterator extends TimeIterator {
+    // Iterator that walks the transactions of the versions of an element
+    private class VersionIterator extends TimeIterator {
+        private final FluxElement element;
+        private final long[] transactions;
+        private int position;
+        // The range of positions of the versions that are part of the time range (all versions by default)
+        private int low = 0;
+        private int high;
+        // The transactions in which the property changed (null if the versions are not filtered on a property)
+        private LongHashSet changes;
+
+        private VersionIterator(final FluxElement element, final long[] transactions, final int position) {
+            this.element = element;
+            this.transactions = transactions;
+            this.position = position;
+            this.high = transactions.length;
+            if (timeAwareFilter instanceof TimeRangeFilter) {
+                TimeRangeFilter timeRangeFilter = (TimeRangeFilter)timeAwareFilter;
+                if (timeRangeFilter.getFrom() != null) {
+                    low = search(timeRangeFilter.getFrom());
+                }
+                if (timeRangeFilter.getTo() != null) {
+                    high = search(timeRangeFilter.getTo());
+                }
+            }
+            else if (timeAwareFilter instanceof PropertyChangedFilter) {
+                changes = getChanges(((PropertyChangedFilter)timeAwareFilter).getKey());
+            }
+        }
+
         @Override
-        protected FluxElement getNext(TimeAwareElement element) {
-            FluxElement found = (FluxElement)element.getPreviousVersion();
-            if (found != null && timeAwareFilter != null) {
-                if (timeAwareFilter.filter(found) != null) {
+        protected FluxElement getNext(TimeAwareElement current) {
+            // Versions outside of the time range are skipped without visiting them
+            position = forward ? Math.max(position, low - 1) : Math.min(position, high);
+            while (forward ? position + 1 < high : position > low) {
+                position = forward ? position + 1 : position - 1;
+                if (changes != null && !changes.contains(transactions[position])) {
+                    continue;
+                }
+                // The last version of the element is its current version
+                FluxElement found = element.getVersion(forward && position == transactions.length - 1 ? null : transactions[position]);
+                if (isPushedDown() || timeAwareFilter == null || timeAwareFilter.filter(found) != null) {
                     return found;
                 }
+            }
+            return null;
+        }
+
+        private boolean isPushedDown() {
+            return timeAwareFilter instanceof TimeRangeFilter || timeAwareFilter instanceof PropertyChangedFilter;
+        }
+
+        // Retrieve the position of the first version that was created at or after the date (the instants of the transactions are ordered)
+        private int search(final Date date) {
+            int lower = 0;
+            int upper = transactions.length;
+            while (lower < upper) {
+                int middle = (lower + upper) >>> 1;
+                if (FluxUtil.getTransactionDate(element.fluxGraph, transactions[middle]).getTime() < date.getTime()) {
+                    lower = middle + 1;
+                }
                 else {
-                    return getNext(found);
+                    upper = middle;
+                }
+            }
+            return lower;
+        }
+
+        // Retrieve the transactions that asserted or retracted a value of the property in the history of the element
+        private LongHashSet getChanges(final String key) {
+            List<Object> attributes = new ArrayList<Object>();
+            Class elementClazz = element instanceof FluxEdge ? Edge.class : Vertex.class;
+            for (Class valueClazz : FluxUtil.getSupportedTypes()) {
+                Object attribute = element.fluxGraph.getSchema().getAttribute(key, valueClazz, elementClazz);
+                if (attribute != null) {
+                    attributes.add(attribute);
                 }
             }
+            LongHashSet changes = new LongHashSet();
+            if (!attributes.isEmpty()) {
+                Database history = element.fluxGraph.getCommittedGraph().history();
+                for (List<Object> change : Peer.q("[:find ?tx " +
+                                                  ":in $ ?id [?attribute ...] " +
+                                                  ":where [?id ?attribute _ ?tx] ]", history, element.getId(), attributes)) {
+                    changes.add((Long)change.get(0));
+                }
+            }
+            return changes;
+        }
+    }
+
+    private class BackwardTimeIterator extends TimeIterator {
+        @Override
+        protected FluxElement getNext(TimeAwareElement element) {
+            FluxElement found = (FluxElement)element.getPreviousVersion();
+            while (found != null && timeAwareFilter != null && timeAwareFilter.filter(found) == null) {
+                found = (FluxElement)found.getPreviousVersion();
+            }
             return found;
         }
     }
@@ -58,43 +161,38 @@ public class FluxTimeIterable implements CloseableIterable {
         @Override
         protected FluxElement getNext(TimeAwareElement element) {
             FluxElement found = (FluxElement)element.getNextVersion();
-            if (found != null && timeAwareFilter != null) {
-                if (timeAwareFilter.filter(found) != null) {
-                    return found;
-                }
-                else {
-                    return getNext(found);
-                }
+            while (found != null && timeAwareFilter != null && timeAwareFilter.filter(found) == null) {
+                found = (FluxElement)found.getNextVersion();
             }
             return found;
         }
     }
 
-    // Iterator for time aware iteration
+    // Iterator for time aware iteration. The next version is looked up once and kept until it is returned
     private abstract class TimeIterator implements Iterator {
+        private TimeAwareElement current = timeAwareElement;
+        private FluxElement next;
+        private boolean done = false;
 
         @Override
         public boolean hasNext() {
-            return hasNext(getNext(timeAwareElement));
+            if (next == null && !done) {
+                next = getNext(current);
+                done = next == null;
+            }
+            return next != null;
         }
 
         protected abstract FluxElement getNext(TimeAwareElement element);
 
         @Override
         public TimeAwareElement next() {
-            TimeAwareElement next = getNext(timeAwareElement);
-            if (next != null) {
-                timeAwareElement = next;
-                return next;
-            }
-            else {
-                return null;
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
-        }
-
-        private boolean hasNext(FluxElement element) {
-            // We do have a next version
-            return element != null;
+            current = next;
+            next = null;
+            return current;
         }
 
         @Override
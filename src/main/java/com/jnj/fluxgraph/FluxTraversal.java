@@ -0,0 +1,249 @@
+package com.jnj.fluxgraph;
+
+import com.tinkerpop.blueprints.Direction;
+import datomic.Database;
+import datomic.Peer;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Set-at-a-time traversal over the vertex ids of a single database value. Instead of visiting the vertices one by one, each hop
+ * joins the complete frontier against the edges in one Datalog query (per batch of vertices), deduplicating the reached vertices
+ * in primitive id sets. The batches of a frontier can be joined in parallel by an executor.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxTraversal {
+
+    // Maximum number of vertices of a frontier that are joined in a single query
+    private static final int BATCH_SIZE = 10000;
+
+    private final FluxGraph graph;
+    private final Database database;
+    private Direction direction = Direction.OUT;
+    private String[] labels = new String[0];
+    private int limit = Integer.MAX_VALUE;
+    private ExecutorService executor;
+
+    // Traversal over the committed graph (at the checkpoint, if any)
+    public FluxTraversal(final FluxGraph graph) {
+        this(graph, graph.getCommittedGraph());
+    }
+
+    public FluxTraversal(final FluxGraph graph, final Database database) {
+        this.graph = graph;
+        this.database = database;
+    }
+
+    // The direction of the edges that are followed (OUT by default)
+    public FluxTraversal direction(final Direction direction) {
+        this.direction = direction;
+        return this;
+    }
+
+    // Only follows the edges with one of the labels (all edges by default)
+    public FluxTraversal labels(final String... labels) {
+        this.labels = labels;
+        return this;
+    }
+
+    // The maximum number of newly reached vertices that are kept for each hop (unlimited by default)
+    public FluxTraversal limit(final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("The limit should be strictly positive");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    // Executor that joins the batches of a frontier in parallel (the batches are joined by the calling thread by default)
+    public FluxTraversal executor(final ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    // Retrieve the ids of the vertices that are reached from the seeds in at most the specified number of hops (the seeds themselves excluded)
+    public LongHashSet expand(final long[] seedIds, final int hops) {
+        LongHashSet visited = new LongHashSet(seedIds.length);
+        for (long seedId : seedIds) {
+            visited.add(seedId);
+        }
+        LongHashSet reached = new LongHashSet();
+        long[] frontier = visited.toArray();
+        for (int hop = 0; hop < hops && frontier.length > 0; hop++) {
+            LongHashSet next = new LongHashSet();
+            for (List<Object> edge : join(frontier)) {
+                long other = (Long)edge.get(1);
+                if (next.size() < limit && visited.add(other)) {
+                    next.add(other);
+                    reached.add(other);
+                }
+            }
+            frontier = next.toArray();
+        }
+        return reached;
+    }
+
+    // Retrieve the ids of the vertices on a shortest path between two vertices of at most the specified number of hops (null if there is no such
+    // path). The search alternately expands the smallest of the frontiers from both vertices until they meet (the per-hop limit is not applied)
+    public long[] shortestPath(final long fromId, final long toId, final int maxDepth) {
+        if (fromId == toId) {
+            return new long[]{fromId};
+        }
+        // The parent of each reached vertex in the direction of its search (the start vertices are their own parent)
+        LongLongHashMap forwardParents = new LongLongHashMap();
+        LongLongHashMap backwardParents = new LongLongHashMap();
+        forwardParents.put(fromId, fromId);
+        backwardParents.put(toId, toId);
+        long[] forwardFrontier = new long[]{fromId};
+        long[] backwardFrontier = new long[]{toId};
+        Direction reverse = direction.equals(Direction.OUT) ? Direction.IN : (direction.equals(Direction.IN) ? Direction.OUT : Direction.BOTH);
+        int depth = 0;
+        while (depth < maxDepth && forwardFrontier.length > 0 && backwardFrontier.length > 0) {
+            boolean forward = forwardFrontier.length <= backwardFrontier.length;
+            LongLongHashMap parents = forward ? forwardParents : backwardParents;
+            LongLongHashMap others = forward ? backwardParents : forwardParents;
+            LongHashSet next = new LongHashSet();
+            // As the frontiers are expanded hop by hop, the first vertex that is reached by both searches lies on a shortest path
+            for (List<Object> edge : join(forward ? forwardFrontier : backwardFrontier, forward ? direction : reverse)) {
+                long vertex = (Long)edge.get(0);
+                long other = (Long)edge.get(1);
+                if (!parents.containsKey(other)) {
+                    parents.put(other, vertex);
+                    if (others.containsKey(other)) {
+                        return getPath(other, forwardParents, backwardParents);
+                    }
+                    next.add(other);
+                }
+            }
+            if (forward) {
+                forwardFrontier = next.toArray();
+            }
+            else {
+                backwardFrontier = next.toArray();
+            }
+            depth++;
+        }
+        return null;
+    }
+
+    // Returns true if there is a path between two vertices of at most the specified number of hops
+    public boolean isReachable(final long fromId, final long toId, final int maxDepth) {
+        return shortestPath(fromId, toId, maxDepth) != null;
+    }
+
+    // Builds the path through the vertex where both searches met
+    private static long[] getPath(final long meeting, final LongLongHashMap forwardParents, final LongLongHashMap backwardParents) {
+        List<Long> path = new ArrayList<Long>();
+        for (long vertex = meeting; ; vertex = forwardParents.get(vertex, vertex)) {
+            path.add(0, vertex);
+            if (forwardParents.get(vertex, vertex) == vertex) {
+                break;
+            }
+        }
+        for (long vertex = meeting; backwardParents.get(vertex, vertex) != vertex; ) {
+            vertex = backwardParents.get(vertex, vertex);
+            path.add(vertex);
+        }
+        long[] ids = new long[path.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = path.get(i);
+        }
+        return ids;
+    }
+
+    // Joins a frontier against the edges in the direction of the traversal. Each result holds a vertex of the frontier and an adjacent vertex
+    protected List<List<Object>> join(final long[] frontier) {
+        return join(frontier, direction);
+    }
+
+    protected List<List<Object>> join(final long[] frontier, final Direction edgeDirection) {
+        List<Callable<Collection<List<Object>>>> queries = new ArrayList<Callable<Collection<List<Object>>>>();
+        for (int from = 0; from < frontier.length; from += BATCH_SIZE) {
+            final List<Long> vertices = new ArrayList<Long>(Math.min(BATCH_SIZE, frontier.length - from));
+            for (int i = from; i < Math.min(from + BATCH_SIZE, frontier.length); i++) {
+                vertices.add(frontier[i]);
+            }
+            for (final Direction queryDirection : getDirections(edgeDirection)) {
+                queries.add(new Callable<Collection<List<Object>>>() {
+                    @Override
+                    public Collection<List<Object>> call() {
+                        return query(vertices, queryDirection);
+                    }
+                });
+            }
+        }
+        List<List<Object>> edges = new ArrayList<List<Object>>();
+        try {
+            if (executor == null || queries.size() == 1) {
+                for (Callable<Collection<List<Object>>> query : queries) {
+                    edges.addAll(query.call());
+                }
+            }
+            else {
+                for (Future<Collection<List<Object>>> result : executor.invokeAll(queries)) {
+                    edges.addAll(result.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+        }
+        return edges;
+    }
+
+    // Joins a batch of vertices against their edges in a particular direction (either OUT or IN). Labels with a vertex-centric index that is
+    // complete in the database value are joined through the index, the other labels are joined against the label of the edges
+    private Collection<List<Object>> query(final List<Long> vertices, final Direction edgeDirection) {
+        Object vertexAttribute = edgeDirection.equals(Direction.OUT) ? graph.GRAPH_EDGE_OUT_VERTEX : graph.GRAPH_EDGE_IN_VERTEX;
+        Object otherAttribute = edgeDirection.equals(Direction.OUT) ? graph.GRAPH_EDGE_IN_VERTEX : graph.GRAPH_EDGE_OUT_VERTEX;
+        if (labels.length == 0) {
+            return query(vertices, vertexAttribute, otherAttribute);
+        }
+        Collection<List<Object>> edges = new ArrayList<List<Object>>();
+        List<String> unindexedLabels = new ArrayList<String>();
+        for (String label : new LinkedHashSet<String>(Arrays.asList(labels))) {
+            Object index = graph.getLabelIndex(label, edgeDirection, database);
+            if (index != null) {
+                edges.addAll(query(vertices, index, otherAttribute));
+            }
+            else {
+                unindexedLabels.add(label);
+            }
+        }
+        if (!unindexedLabels.isEmpty()) {
+            edges.addAll(Peer.q("[:find ?vertex ?other " +
+                                 ":in $ [?vertex ...] ?vertexAttribute ?otherAttribute [?label ...] " +
+                                 ":where [?edge ?vertexAttribute ?vertex] " +
+                                        "[?edge :graph.edge/label ?label] " +
+                                        "[?edge ?otherAttribute ?other] ]", database, vertices, vertexAttribute, otherAttribute,
+                                 unindexedLabels.toArray(new String[unindexedLabels.size()])));
+        }
+        return edges;
+    }
+
+    private Collection<List<Object>> query(final List<Long> vertices, final Object vertexAttribute, final Object otherAttribute) {
+        return Peer.q("[:find ?vertex ?other " +
+                       ":in $ [?vertex ...] ?vertexAttribute ?otherAttribute " +
+                       ":where [?edge ?vertexAttribute ?vertex] " +
+                              "[?edge ?otherAttribute ?other] ]", database, vertices, vertexAttribute, otherAttribute);
+    }
+
+    private static List<Direction> getDirections(final Direction direction) {
+        if (direction.equals(Direction.BOTH)) {
+            return Arrays.asList(Direction.OUT, Direction.IN);
+        }
+        return Collections.singletonList(direction);
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.jnj.fluxgraph;
+
+import datomic.Connection;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drains the transaction report queue of a Datomic connection and forwards each report to the registered listeners.
+ * A connection only has a single report queue, which is consumed exclusively by FluxGraph: taking a report from the queue removes it for
+ * any other consumer, hence other code should register a listener instead of reading the queue of the connection. All listeners of the same
+ * connection share one dispatcher thread. Once the last listener of the connection is removed, the dispatcher thread is stopped and the
+ * report queue is removed from the connection, so the reports of later transactions no longer pile up in an undrained queue.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxTxReportQueue implements Runnable {
+
+    /**
+     * Listener that is notified of each transaction that is executed against the connection (by any peer)
+     */
+    public interface Listener {
+
+        /**
+         * Called for each transaction report
+         *
+         * @param report the transaction report (containing the db-before, db-after and tx-data of the transaction)
+         */
+        public void transactionReport(Map report);
+
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(FluxTxReportQueue.class.getName());
+    private static final Map<Connection, FluxTxReportQueue> queues = new HashMap<Connection, FluxTxReportQueue>();
+
+    private final Connection connection;
+    private final BlockingQueue<Map> queue;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Thread thread;
+
+    private FluxTxReportQueue(final Connection connection) {
+        this.connection = connection;
+        this.queue = connection.txReportQueue();
+        this.thread = new Thread(this, "fluxgraph-tx-report-queue");
+        this.thread.setDaemon(true);
+    }
+
+    // Registers a listener for the transaction reports of a connection
+    public static synchronized void addListener(final Connection connection, final Listener listener) {
+        FluxTxReportQueue reportQueue = queues.get(connection);
+        if (reportQueue == null) {
+            reportQueue = new FluxTxReportQueue(connection);
+            queues.put(connection, reportQueue);
+            reportQueue.thread.start();
+        }
+        reportQueue.listeners.add(listener);
+    }
+
+    // Unregisters a listener. Once the last listener of the connection is removed, the dispatcher thread is stopped and the report queue
+    // is removed from the connection
+    public static synchronized void removeListener(final Connection connection, final Listener listener) {
+        FluxTxReportQueue reportQueue = queues.get(connection);
+        if (reportQueue != null) {
+            reportQueue.listeners.remove(listener);
+            if (reportQueue.listeners.isEmpty()) {
+                queues.remove(connection);
+                reportQueue.thread.interrupt();
+                connection.removeTxReportQueue();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Map report = queue.take();
+                for (Listener listener : listeners) {
+                    try {
+                        listener.transactionReport(report);
+                    } catch (RuntimeException e) {
+                        // A failing listener should not prevent the other listeners from being notified
+                        LOGGER.log(Level.WARNING, "Listener failed to process a transaction report of " + connection, e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // The last listener was removed
+        }
+    }
+
+}
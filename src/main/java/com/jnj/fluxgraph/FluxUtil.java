@@ -1,12 +1,19 @@
 package com.jnj.fluxgraph;
 
 import clojure.lang.Keyword;
+import com.tinkerpop.blueprints.Compare;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Predicate;
 import com.tinkerpop.blueprints.TimeAwareElement;
+import datomic.Connection;
 import datomic.Database;
+import datomic.Datom;
 import datomic.Peer;
 import datomic.Util;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -15,7 +22,17 @@ import java.util.concurrent.ExecutionException;
 public class FluxUtil {
 
     private static final Map<String,String> types;
+    private static final Map<Predicate,String> operators;
     private static final String RESERVED = ":graph";
+    // The database function that adjusts the degrees of vertices
+    static final String ADJUST_DEGREES = ":adjust-degrees";
+    // The database function that adds the facts of the vertex-centric index of its label to an edge (if the label is indexed)
+    static final String INDEX_EDGE = ":index-edge";
+    // Rule that finds the transactions of an element: the transactions of its facts and the transactions that registered a new version of it
+    private static final String TIME_RULE = "[ [ (previous ?id ?tx) [?id _ _ ?tx] ] " +
+                                              "[ (previous ?id ?tx) [_ :graph.element/previousTransaction/elementId ?id ?tx] ] ] ]";
+    // Keywords created for each combination of key, value type and element type
+    private static final ConcurrentMap<List<Object>, Keyword> keys = new ConcurrentHashMap<List<Object>, Keyword>();
 
     static {
         // Types supported by the underlying Datomic data model
@@ -30,6 +47,13 @@ public class FluxUtil {
         types.put("java.math.BigDecimal",":db.type/bigdec");
         types.put("java.util.UUID",":db.type/uuid");
         types.put("java.net.URI",":db.type/uri");
+        // Comparisons that can be evaluated by a Datalog query
+        operators = new HashMap<Predicate,String>();
+        operators.put(Compare.EQUAL, "=");
+        operators.put(Compare.GREATER_THAN, ">");
+        operators.put(Compare.GREATER_THAN_EQUAL, ">=");
+        operators.put(Compare.LESS_THAN, "<");
+        operators.put(Compare.LESS_THAN_EQUAL, "<=");
     }
 
     // Check whether a key is part of the reserved space
@@ -46,6 +70,37 @@ public class FluxUtil {
         return null;
     }
 
+    // Retrieve the Java types of which values can be stored
+    public static List<Class> getSupportedTypes() {
+        List<Class> supportedTypes = new ArrayList<Class>();
+        for (String type : types.keySet()) {
+            try {
+                supportedTypes.add(Class.forName(type));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+            }
+        }
+        return supportedTypes;
+    }
+
+    // Check whether values of a particular Java type can be stored
+    public static boolean isSupportedType(final Class clazz) {
+        return types.containsKey(clazz.getName());
+    }
+
+    // Retrieve the Datalog operator for a comparison of a property with a value (null if the comparison can not be evaluated by a query)
+    public static String getDatalogOperator(final Predicate predicate, final Object value) {
+        if (value == null || !isSupportedType(value.getClass())) {
+            return null;
+        }
+        return operators.get(predicate);
+    }
+
+    // Retrieve the value as it is stored in Datomic (integers are stored as longs)
+    public static Object getDatalogValue(final Object value) {
+        return value instanceof Integer ? Long.valueOf((Integer)value) : value;
+    }
+
     // Retrieve the Datomic to for the Java equivalent
     public static String mapJavaTypeToDatomicType(final Class clazz) {
         if (types.containsKey(clazz.getName())) {
@@ -56,21 +111,82 @@ public class FluxUtil {
 
     // Create the attribute definition if it does not exist yet
     public static void createAttributeDefinition(final String key, final Class valueClazz, final Class elementClazz, FluxGraph graph) {
+        createAttributeDefinition(key, valueClazz, elementClazz, graph, false);
+    }
+
+    // Create the attribute definition if it does not exist yet (optionally with a fulltext index, which can only be set when the attribute is created)
+    public static void createAttributeDefinition(final String key, final Class valueClazz, final Class elementClazz, FluxGraph graph, final boolean fulltext) {
         if (!existingAttributeDefinition(key, valueClazz, elementClazz, graph)) {
             try {
-                if (graph.getTransactionTime() == null) {
-                    graph.getConnection().transact(Util.list(Util.map(":db/id", Peer.tempid(":db.part/db"),
-                                                                      ":db/ident", createKey(key, valueClazz, elementClazz),
-                                                                      ":db/valueType", mapJavaTypeToDatomicType(valueClazz),
-                                                                      ":db/cardinality", ":db.cardinality/one",
-                                                                      ":db.install/_attribute", ":db.part/db"))).get();
+                Object attributeId = Peer.tempid(":db.part/db");
+                Keyword attribute = createKey(key, valueClazz, elementClazz);
+                List statements = new ArrayList();
+                Map definition = map(":db/id", attributeId,
+                                     ":db/ident", attribute,
+                                     ":db/valueType", mapJavaTypeToDatomicType(valueClazz),
+                                     ":db/cardinality", ":db.cardinality/one",
+                                     ":db.install/_attribute", ":db.part/db");
+                if (fulltext) {
+                    definition.put(":db/fulltext", true);
                 }
-                else {
-                    graph.getConnection().transact(Util.list(Util.map(":db/id", Peer.tempid(":db.part/db"),
-                                                                      ":db/ident", createKey(key, valueClazz, elementClazz),
-                                                                      ":db/valueType", mapJavaTypeToDatomicType(valueClazz),
-                                                                      ":db/cardinality", ":db.cardinality/one",
-                                                                      ":db.install/_attribute", ":db.part/db"), datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", graph.getTransactionTime()))).get();
+                statements.add(definition);
+                if (graph.getTransactionTime() != null) {
+                    statements.add(datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", graph.getTransactionTime()));
+                }
+                Map result = graph.getConnection().transact(statements).get();
+                // Register the new attribute in the schema (without waiting for the transaction report)
+                graph.getSchema().addAttribute(attribute, resolveTempid(result, attributeId));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+            }
+        }
+    }
+
+    // Create the attributes of the vertex-centric index of a label if they do not exist yet
+    // For each direction, the edges with that label refer to their vertex through an indexed attribute that is specific for the label
+    public static void createLabelIndexDefinition(final String label, final FluxGraph graph) {
+        Map<Keyword, String> attributes = new LinkedHashMap<Keyword, String>();
+        for (Direction direction : Arrays.asList(Direction.OUT, Direction.IN)) {
+            attributes.put(createLabelKey(label, direction), "The " + direction.toString().toLowerCase() + " vertex of an edge with label " + label);
+        }
+        createIndexedAttributeDefinitions(attributes, ":db.type/ref", graph);
+    }
+
+    // Creates the (indexed) degree attributes of the vertices for a label (or for all edges if the label is null)
+    public static void createDegreeIndexDefinition(final String label, final FluxGraph graph) {
+        Map<Keyword, String> attributes = new LinkedHashMap<Keyword, String>();
+        for (Direction direction : Arrays.asList(Direction.OUT, Direction.IN)) {
+            attributes.put(createDegreeKey(label, direction), "The number of " + direction.toString().toLowerCase() + " edges of a vertex" + (label != null ? " with label " + label : ""));
+        }
+        createIndexedAttributeDefinitions(attributes, ":db.type/long", graph);
+    }
+
+    // Installs the indexed attributes (with their documentation) that do not exist yet and registers them in the schema of the graph
+    private static void createIndexedAttributeDefinitions(final Map<Keyword, String> attributes, final String valueType, final FluxGraph graph) {
+        List statements = new ArrayList();
+        for (Map.Entry<Keyword, String> attribute : attributes.entrySet()) {
+            if (!existingAttributeDefinition(attribute.getKey(), graph)) {
+                statements.add(Util.map(":db/id", Peer.tempid(":db.part/db"),
+                                        ":db/ident", attribute.getKey(),
+                                        ":db/valueType", valueType,
+                                        ":db/cardinality", ":db.cardinality/one",
+                                        ":db/doc", attribute.getValue(),
+                                        ":db/index", true,
+                                        ":db.install/_attribute", ":db.part/db"));
+            }
+        }
+        if (!statements.isEmpty()) {
+            try {
+                if (graph.getTransactionTime() != null) {
+                    statements.add(datomic.Util.map(":db/id", datomic.Peer.tempid(":db.part/tx"), ":db/txInstant", graph.getTransactionTime()));
+                }
+                Map result = graph.getConnection().transact(statements).get();
+                // Register the new attributes in the schema (without waiting for the transaction report)
+                Database database = (Database)result.get(Connection.DB_AFTER);
+                for (Keyword attribute : attributes.keySet()) {
+                    graph.getSchema().addAttribute(attribute, database.entid(attribute));
                 }
             } catch (InterruptedException e) {
                 throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
@@ -108,6 +224,23 @@ public class FluxUtil {
         setAttributeIndex(key, elementClazz, graph, true);
     }
 
+    // Creates a fulltext index (next to the regular index) for the string values of a particular key
+    public static void createFulltextIndex(final String key, final Class elementClazz, final FluxGraph graph) {
+        Object attribute = getAttributeDefinition(key, String.class, elementClazz, graph);
+        if (attribute == null) {
+            createAttributeDefinition(key, String.class, elementClazz, graph, true);
+        }
+        else if (!isFulltextAttribute(attribute, graph.getConnection().db())) {
+            throw new IllegalArgumentException("The string values of property " + key + " already exist without a fulltext index");
+        }
+        createAttributeIndex(key, elementClazz, graph);
+    }
+
+    // Checks whether an attribute has a fulltext index
+    public static boolean isFulltextAttribute(final Object attribute, final Database database) {
+        return Boolean.TRUE.equals(database.entity(attribute).get(":db/fulltext"));
+    }
+
     // Creates an index for a particular attribute
     public static void removeAttributeIndex(final String key, final Class elementClazz, final FluxGraph graph)  {
         setAttributeIndex(key, elementClazz, graph, false);
@@ -115,22 +248,12 @@ public class FluxUtil {
 
     // Checks whether a new attribute defintion needs to be created on the fly
     public static boolean existingAttributeDefinition(final String key, final Class valueClazz, final Class elementClazz, final FluxGraph graph) {
-        int attributekeysize = Peer.q("[:find ?attribute " +
-                                       ":in $ ?key " +
-                                       ":where [?attribute :db/ident ?key] ]", graph.getRawGraph(), createKey(key, valueClazz, elementClazz)).size();
-        // Existing attribute
-        return attributekeysize != 0;
+        return graph.getSchema().getAttribute(key, valueClazz, elementClazz) != null;
     }
 
     // Retrieve the attribute definition (if it exists). Otherwise, it returns null
     public static Object getAttributeDefinition(final String key, final Class valueClazz, final Class elementClazz, final FluxGraph graph) {
-        if (existingAttributeDefinition(key, valueClazz, elementClazz, graph)) {
-            Collection<List<Object>> attributekeysize = Peer.q("[:find ?attribute " +
-                                                                ":in $ ?key " +
-                                                                ":where [?attribute :db/ident ?key] ]", graph.getRawGraph(), createKey(key, valueClazz, elementClazz));
-            return attributekeysize.iterator().next().get(0);
-        }
-        return null;
+        return graph.getSchema().getAttribute(key, valueClazz, elementClazz);
     }
 
     public static Set<String> getIndexedAttributes(final Class elementClazz, final FluxGraph graph) {
@@ -150,20 +273,117 @@ public class FluxUtil {
 
     // Checks whether a new attribute defintion needs to be created on the fly
     public static boolean existingAttributeDefinition(final Keyword key, final FluxGraph graph) {
-        int attributekeysize = Peer.q("[:find ?attribute " +
-                                       ":in $ ?key " +
-                                       ":where [?attribute :db/ident ?key] ]", graph.getRawGraph(), key).size();
-        // Existing attribute
-        return attributekeysize != 0;
+        return graph.getSchema().getAttribute(key) != null;
     }
 
     // Creates a unique key for each key-valuetype attribute (as only one attribute with the same name can be specified)
     public static Keyword createKey(final String key, final Class valueClazz, final Class elementClazz) {
-        String elementType = "vertex";
-        if (elementClazz.isAssignableFrom(FluxEdge.class)) {
-            elementType = "edge";
+        List<Object> cacheKey = Arrays.<Object>asList(key, valueClazz, elementClazz);
+        Keyword keyword = keys.get(cacheKey);
+        if (keyword == null) {
+            String elementType = "vertex";
+            if (elementClazz.isAssignableFrom(FluxEdge.class)) {
+                elementType = "edge";
+            }
+            keyword = Keyword.intern(key.replace("_","$") + "." + mapJavaTypeToDatomicType(valueClazz).split("/")[1] + "." + elementType);
+            keys.putIfAbsent(cacheKey, keyword);
         }
-        return Keyword.intern(key.replace("_","$") + "." + mapJavaTypeToDatomicType(valueClazz).split("/")[1] + "." + elementType);
+        return keyword;
+    }
+
+    // The t of the last transaction of a database value
+    public static long getT(final Database database) {
+        Long asOfT = database.asOfT();
+        return asOfT != null ? Math.min(asOfT, database.basisT()) : database.basisT();
+    }
+
+    // The definition of the database function that adds the facts of the vertex-centric index of its label to an edge. The function checks
+    // whether the label is indexed in the database value of the transaction, hence edges that are added concurrently with the creation of an
+    // index are never missed. An existing edge is skipped if it got removed in the meantime
+    static Map getIndexEdgeFunction() {
+        String indexEdgeCode = "datomic.Database database = (datomic.Database)db;\n" +
+                               "Object outAttribute = clojure.lang.Keyword.intern(\"graph.edge.out\", (String)label);\n" +
+                               "Object inAttribute = clojure.lang.Keyword.intern(\"graph.edge.in\", (String)label);\n" +
+                               "if (database.entid(outAttribute) == null || database.entid(inAttribute) == null) {\n" +
+                               "    return list();\n" +
+                               "}\n" +
+                               "if (edge instanceof Long && database.entity(edge).get(\":graph.edge/label\") == null) {\n" +
+                               "    return list();\n" +
+                               "}\n" +
+                               "return list(list(\":db/add\", edge, outAttribute, outVertex), list(\":db/add\", edge, inAttribute, inVertex));\n";
+        return Util.map(":db/id", Peer.tempid(":db.part/user"),
+                        ":db/ident", INDEX_EDGE,
+                        ":db/fn", Peer.function(Util.map("lang", "java",
+                                                "params", Util.list("db", "edge", "label", "outVertex", "inVertex"),
+                                                "code", indexEdgeCode)));
+    }
+
+    // The definition of the database function that adds deltas to the degrees of vertices, based on their degrees in the database value of
+    // the transaction (hence concurrent transactions on the same vertex do not overwrite each other). Each adjustment is a list of the vertex,
+    // the degree attribute and the delta. Whether the degree is kept is checked within the transaction, hence edges that are added or removed
+    // concurrently with the creation of a degree index are never missed. Existing vertices that got removed in the meantime are skipped
+    static Map getAdjustDegreesFunction() {
+        String adjustDegreesCode = "datomic.Database database = (datomic.Database)db;\n" +
+                                   "java.util.List statements = new java.util.ArrayList();\n" +
+                                   "for (Object adjustment : (java.util.List)adjustments) {\n" +
+                                   "    Object id = ((java.util.List)adjustment).get(0);\n" +
+                                   "    Object attribute = ((java.util.List)adjustment).get(1);\n" +
+                                   "    long degree = ((Number)((java.util.List)adjustment).get(2)).longValue();\n" +
+                                   "    if (database.entid(attribute) == null) {\n" +
+                                   "        continue;\n" +
+                                   "    }\n" +
+                                   "    if (id instanceof Long) {\n" +
+                                   "        datomic.Entity vertex = database.entity(id);\n" +
+                                   "        if (vertex.get(\":graph.element/type\") == null) {\n" +
+                                   "            continue;\n" +
+                                   "        }\n" +
+                                   "        Object current = vertex.get(attribute);\n" +
+                                   "        degree += current == null ? 0 : ((Number)current).longValue();\n" +
+                                   "    }\n" +
+                                   "    statements.add(list(\":db/add\", id, attribute, Long.valueOf(degree)));\n" +
+                                   "}\n" +
+                                   "return statements;\n";
+        return Util.map(":db/id", Peer.tempid(":db.part/user"),
+                        ":db/ident", ADJUST_DEGREES,
+                        ":db/fn", Peer.function(Util.map("lang", "java",
+                                                "params", Util.list("db", "adjustments"),
+                                                "code", adjustDegreesCode)));
+    }
+
+    // The definition of the attribute that marks an index as complete. It is asserted on the attribute that identifies the index once the
+    // facts of the existing elements are added
+    static Map getIndexCompleteDefinition() {
+        return Util.map(":db/id", Peer.tempid(":db.part/db"),
+                        ":db/ident", ":graph.index/complete",
+                        ":db/valueType", ":db.type/boolean",
+                        ":db/cardinality", ":db.cardinality/one",
+                        ":db/doc", "Marks an index of which the facts of all existing elements are added",
+                        ":db.install/_attribute", ":db.part/db");
+    }
+
+    // Creates the attribute of the vertex-centric index for a label and direction
+    public static Keyword createLabelKey(final String label, final Direction direction) {
+        return Keyword.intern(direction.equals(Direction.OUT) ? "graph.edge.out" : "graph.edge.in", label);
+    }
+
+    // Check whether an attribute is part of a vertex-centric index
+    public static boolean isLabelIndexKey(final Keyword attribute) {
+        return "graph.edge.out".equals(attribute.getNamespace()) || "graph.edge.in".equals(attribute.getNamespace());
+    }
+
+    // Creates the attribute that keeps the degree of a vertex in a particular direction (for a label or for all edges if the label is null)
+    public static Keyword createDegreeKey(final String label, final Direction direction) {
+        if (label == null) {
+            return Keyword.intern("graph.vertex", direction.equals(Direction.OUT) ? "outDegree" : "inDegree");
+        }
+        return Keyword.intern(direction.equals(Direction.OUT) ? "graph.vertex.outDegree" : "graph.vertex.inDegree", label);
+    }
+
+    // Returns true if the attribute keeps the degree of a vertex
+    public static boolean isDegreeKey(final Keyword attribute) {
+        String namespace = attribute.getNamespace();
+        return (namespace.equals("graph.vertex") && (attribute.getName().equals("outDegree") || attribute.getName().equals("inDegree"))) ||
+               namespace.equals("graph.vertex.outDegree") || namespace.equals("graph.vertex.inDegree");
     }
 
     // Returns the previous transaction for a particular time aware element
@@ -194,12 +414,15 @@ public class FluxUtil {
     }
 
     public static Object getActualTimeId(Database database, TimeAwareElement element) {
+        // The version chain of a committed element is looked up in the version index (if it reflects the database value)
+        FluxVersionIndex versionIndex = ((FluxElement)element).fluxGraph.getVersionIndex();
+        if (element.getId() instanceof Long && versionIndex.isCurrent(database)) {
+            return versionIndex.getTransaction(database, element.getId());
+        }
         // Get the actual time id for a particular element and database value
-        String timeRule = "[ [ (previous ?id ?tx) [?id _ _ ?tx] ] " +
-                            "[ (previous ?id ?tx) [_ :graph.element/previousTransaction/elementId ?id ?tx] ] ] ]";
         Collection<List<Object>> alltxs = (datomic.Peer.q("[:find ?tx " +
                                                            ":in $ ?id % " +
-                                                           ":where [previous ?id ?tx] ]", database.history(), element.getId(), timeRule));
+                                                           ":where [previous ?id ?tx] ]", database.history(), element.getId(), TIME_RULE));
         Iterator<List<Object>> tx = alltxs.iterator();
         Object lastTransaction = null;
         if (tx.hasNext()) {
@@ -216,8 +439,32 @@ public class FluxUtil {
         return lastTransaction;
     }
 
+    // Retrieve the actual time ids of a batch of (committed) elements in a database value through a single query
+    public static Map<Object, Object> getActualTimeIds(final Database database, final Collection<Object> ids) {
+        Map<Object, Object> timeIds = new HashMap<Object, Object>();
+        for (List<Object> transaction : Peer.q("[:find ?id ?tx " +
+                                                ":in $ [?id ...] % " +
+                                                ":where [previous ?id ?tx] ]", database.history(), ids, TIME_RULE)) {
+            Long timeId = (Long)timeIds.get(transaction.get(0));
+            if (timeId == null || (Long)transaction.get(1) > timeId) {
+                timeIds.put(transaction.get(0), transaction.get(1));
+            }
+        }
+        return timeIds;
+    }
+
+    // Helper method to retrieve the real id of a temporary id from the result of the transaction in which it got committed
+    public static Object resolveTempid(Map transactionResult, Object tempid) {
+        return Peer.resolveTempid((Database)transactionResult.get(Connection.DB_AFTER), transactionResult.get(Connection.TEMPIDS), tempid);
+    }
+
     // Helper method to retrieve the date associated with a particular transaction id
     public static Date getTransactionDate(FluxGraph graph, Object transaction) {
+        // Transactions are looked up in the time index, transactions that are not seen yet are queried
+        Date date = graph.getTimeIndex().getDate((Long)transaction);
+        if (date != null) {
+            return date;
+        }
         return (Date)datomic.Peer.q("[:find ?time " +
                                      ":in $ ?tx " +
                                      ":where [?tx :db/txInstant ?time] ]", graph.getRawGraph(), transaction).iterator().next().get(0);
@@ -229,6 +476,103 @@ public class FluxUtil {
                        ":where [?entity :db/ident ?attribute] ] ", graph.getRawGraph(), Keyword.intern(attribute)).iterator().next().get(0);
     }
 
+    // Iterates the entity ids of the datoms as primitive longs
+    public static LongIterator getEntityIds(final Iterable<Datom> datoms) {
+        final Iterator<Datom> datomsIt = datoms.iterator();
+        return new LongIterator() {
+            @Override
+            public boolean hasNext() {
+                return datomsIt.hasNext();
+            }
+
+            @Override
+            public long next() {
+                return (Long)datomsIt.next().e();
+            }
+        };
+    }
+
+    // Iterates the values of a reference attribute of the entities of the datoms as primitive longs (e.g. the vertices of the edges)
+    public static LongIterator getReferencedIds(final Database database, final Iterable<Datom> datoms, final Object attribute) {
+        final Iterator<Datom> datomsIt = datoms.iterator();
+        return new LongIterator() {
+            @Override
+            public boolean hasNext() {
+                return datomsIt.hasNext();
+            }
+
+            @Override
+            public long next() {
+                return (Long)database.datoms(Database.EAVT, datomsIt.next().e(), attribute).iterator().next().v();
+            }
+        };
+    }
+
+    // Iterates a column of query results as primitive longs
+    public static LongIterator getIds(final Collection<List<Object>> rows, final int column) {
+        final Iterator<List<Object>> rowsIt = rows.iterator();
+        return new LongIterator() {
+            @Override
+            public boolean hasNext() {
+                return rowsIt.hasNext();
+            }
+
+            @Override
+            public long next() {
+                return (Long)rowsIt.next().get(column);
+            }
+        };
+    }
+
+    // Iterates the values of the iterators one after the other
+    public static LongIterator concat(final List<LongIterator> iterators) {
+        if (iterators.size() == 1) {
+            return iterators.get(0);
+        }
+        final Iterator<LongIterator> iteratorsIt = iterators.iterator();
+        return new LongIterator() {
+            private LongIterator current = iteratorsIt.hasNext() ? iteratorsIt.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                while (current != null && !current.hasNext()) {
+                    current = iteratorsIt.hasNext() ? iteratorsIt.next() : null;
+                }
+                return current != null;
+            }
+
+            @Override
+            public long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    // Collects the values of an iterator in an array
+    public static long[] toArray(final LongIterator iterator) {
+        long[] values = new long[16];
+        int size = 0;
+        while (iterator.hasNext()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = iterator.next();
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    // Helper method to count the objects of an iterable (e.g. the datoms of an index range) without keeping them
+    public static long count(final Iterable iterable) {
+        long count = 0;
+        for (Iterator iterator = iterable.iterator(); iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
     // Helper method to create a mutable map (instead of an immutable map via the datomic Util.map method)
     public static Map map(Object... mapValues) {
         Map map = new HashMap();
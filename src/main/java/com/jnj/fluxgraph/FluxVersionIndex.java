@@ -0,0 +1,254 @@
+package com.jnj.fluxgraph;
+
+import datomic.Connection;
+import datomic.Database;
+import datomic.Datom;
+import datomic.Peer;
+
+import java.util.*;
+
+/**
+ * Thread-safe, in-memory index of the version chains of the elements: the ordered ids of all transactions that changed an element
+ * (either through one of its facts or through the transaction info that registers a new version of it). The chain of an element is
+ * loaded from the history of the database the first time it is requested and is kept up to date with the transactions that are seen
+ * on the transaction report queue (or that are committed by this peer). The index keeps the chains of the most recently used elements.
+ * The history of the database is queried outside of the lock of the index, hence readers of other chains and the transaction report
+ * queue are not blocked while a chain is loaded.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxVersionIndex implements FluxTxReportQueue.Listener {
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final String VERSION_RULE = "[ [ (previous ?id ?tx) [?id _ _ ?tx] ] " +
+                                                 "[ (previous ?id ?tx) [_ :graph.element/previousTransaction/elementId ?id ?tx] ] ] ]";
+
+    private final Connection connection;
+    private final Object elementIdAttribute;
+    private final Map<Object, Chain> chains;
+    // All transactions up to this t are reflected in the chains. It is only moved up by the transaction report queue, which delivers the
+    // transactions of all peers in order
+    private long basisT = -1;
+
+    // The index should be registered on the transaction report queue before it is initialized, so no transaction is missed in between
+    public FluxVersionIndex(final Connection connection, final int capacity) {
+        this.connection = connection;
+        this.elementIdAttribute = connection.db().entid(":graph.element/previousTransaction/elementId");
+        this.chains = new LinkedHashMap<Object, Chain>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Chain> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Reflects the transactions up to the latest database value (the chains themselves are loaded on demand)
+    public synchronized void initialize() {
+        basisT = Math.max(basisT, connection.db().basisT());
+    }
+
+    // Returns true if the transactions of a database value are reflected in the index
+    public synchronized boolean isCurrent(final Database database) {
+        return FluxUtil.getT(database) <= basisT;
+    }
+
+    // Retrieve the last transaction that changed an element in a database value (null if the element is not part of the database value).
+    // The database value should be reflected in the index (see isCurrent)
+    public Object getTransaction(final Database database, final Object id) {
+        Chain chain = getChain(id);
+        synchronized (this) {
+            int size = chain.size(FluxUtil.getT(database));
+            return size > 0 ? chain.transactions[size - 1] : null;
+        }
+    }
+
+    // Retrieve the ordered transactions that changed an element, up to the last transaction of a database value.
+    // The database value should be reflected in the index (see isCurrent)
+    public long[] getTransactions(final Database database, final Object id) {
+        Chain chain = getChain(id);
+        synchronized (this) {
+            return Arrays.copyOf(chain.transactions, chain.size(FluxUtil.getT(database)));
+        }
+    }
+
+    // Loads the chains of the elements that are not part of the index yet through a single query
+    public void load(final Collection<Object> ids) {
+        Map<Object, Chain> loading = new HashMap<Object, Chain>();
+        synchronized (this) {
+            for (Object id : ids) {
+                if (!chains.containsKey(id)) {
+                    Chain chain = new Chain();
+                    chains.put(id, chain);
+                    loading.put(id, chain);
+                }
+            }
+        }
+        if (!loading.isEmpty()) {
+            load(loading);
+        }
+    }
+
+    // Adds the transaction of a report that is seen on the transaction report queue
+    @Override
+    public synchronized void transactionReport(final Map report) {
+        transactionCommitted(report);
+        basisT = Math.max(basisT, ((Database)report.get(Connection.DB_AFTER)).basisT());
+    }
+
+    // Adds the transaction of a report of a transaction that is committed by this peer. The earlier transactions of other peers might not be
+    // seen on the queue yet, hence the t of the index is not moved up
+    public synchronized void transactionCommitted(final Map report) {
+        for (Datom datom : (List<Datom>)report.get(Connection.TX_DATA)) {
+            long tx = (Long)datom.tx();
+            add(datom.e(), tx);
+            if (elementIdAttribute != null && elementIdAttribute.equals(datom.a())) {
+                add(datom.v(), tx);
+            }
+        }
+    }
+
+    // Retrieve the chain of an element, loading it from the history of the database if it is not part of the index. A chain that is being
+    // loaded by another thread is waited for
+    private Chain getChain(final Object id) {
+        while (true) {
+            Chain chain;
+            synchronized (this) {
+                chain = chains.get(id);
+                if (chain != null) {
+                    while (!chain.loaded && chains.get(id) == chain) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE, e);
+                        }
+                    }
+                    if (chain.loaded) {
+                        return chain;
+                    }
+                    // The chain got evicted or could not be loaded, hence it is loaded again
+                    continue;
+                }
+                chain = new Chain();
+                chains.put(id, chain);
+            }
+            load(Collections.singletonMap(id, chain));
+            return chain;
+        }
+    }
+
+    // Queries the history of the database for the chains that are being loaded (outside of the lock) and publishes them. The transactions
+    // that were seen in the meantime are already appended to the chains, both are ordered at once
+    private void load(final Map<Object, Chain> loading) {
+        Map<Object, Chain> loaded = new HashMap<Object, Chain>();
+        try {
+            for (List<Object> transaction : Peer.q("[:find ?id ?tx " +
+                                                    ":in $ [?id ...] % " +
+                                                    ":where [previous ?id ?tx] ]", connection.db().history(),
+                                                    new ArrayList<Object>(loading.keySet()), VERSION_RULE)) {
+                Chain chain = loaded.get(transaction.get(0));
+                if (chain == null) {
+                    chain = new Chain();
+                    loaded.put(transaction.get(0), chain);
+                }
+                chain.append((Long)transaction.get(1));
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                for (Map.Entry<Object, Chain> chain : loading.entrySet()) {
+                    if (chains.get(chain.getKey()) == chain.getValue()) {
+                        chains.remove(chain.getKey());
+                    }
+                }
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            for (Map.Entry<Object, Chain> chain : loading.entrySet()) {
+                Chain transactions = loaded.get(chain.getKey());
+                if (transactions != null) {
+                    for (int i = 0; i < transactions.size; i++) {
+                        chain.getValue().append(transactions.transactions[i]);
+                    }
+                }
+                chain.getValue().publish();
+            }
+            notifyAll();
+        }
+    }
+
+    // Adds a transaction to the chain of an element (if the chain of the element is part of the index)
+    private void add(final Object id, final long tx) {
+        Chain chain = chains.get(id);
+        if (chain != null) {
+            chain.add(tx);
+        }
+    }
+
+    // Ordered transaction ids of the versions of an element. While the chain is being loaded, transactions are appended and they are ordered
+    // once the chain is published
+    private static final class Chain {
+        private long[] transactions = new long[4];
+        private int size = 0;
+        private boolean loaded = false;
+
+        // Adds a transaction at its position (transactions that are already part of the chain are ignored). Transactions are mostly
+        // appended, but a transaction of another peer can be seen after a later transaction that was committed by this peer
+        private void add(final long tx) {
+            if (!loaded) {
+                append(tx);
+                return;
+            }
+            int index = size > 0 && tx > transactions[size - 1] ? -size - 1 : Arrays.binarySearch(transactions, 0, size, tx);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == transactions.length) {
+                transactions = Arrays.copyOf(transactions, size * 2);
+            }
+            System.arraycopy(transactions, index, transactions, index + 1, size - index);
+            transactions[index] = tx;
+            size++;
+        }
+
+        private void append(final long tx) {
+            if (size == transactions.length) {
+                transactions = Arrays.copyOf(transactions, size * 2);
+            }
+            transactions[size++] = tx;
+        }
+
+        // Orders the appended transactions (without duplicates)
+        private void publish() {
+            Arrays.sort(transactions, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || transactions[i] != transactions[distinct - 1]) {
+                    transactions[distinct++] = transactions[i];
+                }
+            }
+            size = distinct;
+            loaded = true;
+        }
+
+        // The number of transactions up to (and including) a t, found through a binary search as transaction ids are ordered by their t
+        private int size(final long t) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (Peer.toT(transactions[middle]) <= t) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+}
@@ -2,7 +2,6 @@ package com.jnj.fluxgraph;
 
 import com.tinkerpop.blueprints.*;
 import com.tinkerpop.blueprints.util.DefaultQuery;
-import com.tinkerpop.blueprints.util.DefaultVertexQuery;
 import com.tinkerpop.blueprints.util.MultiIterable;
 import com.tinkerpop.blueprints.util.StringFactory;
 import datomic.*;
@@ -16,14 +15,11 @@ public class FluxVertex extends FluxElement implements TimeAwareVertex {
 
     protected FluxVertex(final FluxGraph fluxGraph, final Database database) {
         super(fluxGraph, database);
-        fluxGraph.addToTransaction(Util.map(":db/id", id,
-                                              ":graph.element/type", ":graph.element.type/vertex",
-                                              ":db/ident", uuid));
+        fluxGraph.assertFact(id, ":graph.element/type", ":graph.element.type/vertex");
     }
 
     public FluxVertex(final FluxGraph fluxGraph, final Database database, final Object id) {
-        super(fluxGraph, database);
-        this.id = id;
+        super(fluxGraph, database, id);
     }
 
     @Override
@@ -54,6 +50,11 @@ public class FluxVertex extends FluxElement implements TimeAwareVertex {
         return null;
     }
 
+    @Override
+    protected FluxVertex getVersion(final Object transaction) {
+        return new FluxVertex(fluxGraph, transaction != null ? fluxGraph.getRawGraph(transaction) : null, id);
+    }
+
     @Override
     public Iterable<TimeAwareVertex> getNextVersions() {
         return new FluxTimeIterable(this, true);
@@ -88,37 +89,44 @@ public class FluxVertex extends FluxElement implements TimeAwareVertex {
     @Override
     public Iterable<Vertex> getVertices(Direction direction, String... labels) {
         if (direction.equals(Direction.OUT)) {
-            Iterator<Edge> edgesit = this.getOutEdges(labels).iterator();
-            List<Object> vertices = new ArrayList<Object>();
-            while (edgesit.hasNext()) {
-                vertices.add(edgesit.next().getVertex(Direction.IN).getId());
-            }
-            return new FluxIterable<Vertex>(vertices, fluxGraph, database, Vertex.class);
+            return getAdjacentVertices(this.getOutEdges(labels), Direction.IN);
         } else if (direction.equals(Direction.IN)) {
-            Iterator<Edge> edgesit = this.getInEdges(labels).iterator();
-            List<Object> vertices = new ArrayList<Object>();
-            while (edgesit.hasNext()) {
-                vertices.add(edgesit.next().getVertex(Direction.OUT).getId());
-            }
-            return new FluxIterable<Vertex>(vertices, fluxGraph, database, Vertex.class);
+            return getAdjacentVertices(this.getInEdges(labels), Direction.OUT);
         }
         else {
-            Iterator<Edge> outEdgesIt = this.getOutEdges(labels).iterator();
-            List<Object> outvertices = new ArrayList<Object>();
-            while (outEdgesIt.hasNext()) {
-                outvertices.add(outEdgesIt.next().getVertex(Direction.IN).getId());
-            }
-            Iterator<Edge> inEdgesIt = this.getInEdges(labels).iterator();
-            List<Object> invertices = new ArrayList<Object>();
-            while (inEdgesIt.hasNext()) {
-                invertices.add(inEdgesIt.next().getVertex(Direction.OUT).getId());
-            }
             return new MultiIterable<Vertex>(Arrays.<Iterable<Vertex>>asList(
-                    new FluxIterable<Vertex>(outvertices, fluxGraph, database, Vertex.class),
-                    new FluxIterable<Vertex>(invertices, fluxGraph, database, Vertex.class)));
+                    getAdjacentVertices(this.getOutEdges(labels), Direction.IN),
+                    getAdjacentVertices(this.getInEdges(labels), Direction.OUT)));
         }
     }
 
+    // Lazily maps each edge onto its vertex in the specified direction. The edges carry the vertex ids of the adjacency lookup, hence
+    // neighbours are streamed one by one without materializing the edges of the vertex first
+    static Iterable<Vertex> getAdjacentVertices(final Iterable<Edge> edges, final Direction direction) {
+        return new Iterable<Vertex>() {
+            @Override
+            public Iterator<Vertex> iterator() {
+                final Iterator<Edge> edgesIt = edges.iterator();
+                return new Iterator<Vertex>() {
+                    @Override
+                    public boolean hasNext() {
+                        return edgesIt.hasNext();
+                    }
+
+                    @Override
+                    public Vertex next() {
+                        return edgesIt.next().getVertex(direction);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
     @Override
     public String toString() {
         return StringFactory.vertexString(this);
@@ -126,7 +134,7 @@ public class FluxVertex extends FluxElement implements TimeAwareVertex {
 
     @Override
     public VertexQuery query() {
-        return new DefaultVertexQuery(this);
+        return new FluxVertexQuery(this);
     }
 
     @Override
@@ -155,36 +163,152 @@ public class FluxVertex extends FluxElement implements TimeAwareVertex {
         return theFacts;
     }
 
+    // Iterates the ids of the adjacent vertices in a particular direction (through the edges with one of the labels) in the committed version of
+    // the vertex, straight from the index datoms. A vertex that is connected through multiple edges is returned once for each edge
+    public LongIterator neighborIds(final Direction direction, final String... labels) {
+        if (direction.equals(Direction.BOTH)) {
+            return FluxUtil.concat(Arrays.asList(neighborIds(Direction.OUT, labels), neighborIds(Direction.IN, labels)));
+        }
+        if (isNew()) {
+            // A newly created vertex has no edges in the committed graph
+            return FluxUtil.getIds(Collections.<List<Object>>emptyList(), 0);
+        }
+        Database committed = database == null ? fluxGraph.getCommittedGraph() : database;
+        Object vertexAttribute = direction.equals(Direction.OUT) ? fluxGraph.GRAPH_EDGE_OUT_VERTEX : fluxGraph.GRAPH_EDGE_IN_VERTEX;
+        Object otherAttribute = direction.equals(Direction.OUT) ? fluxGraph.GRAPH_EDGE_IN_VERTEX : fluxGraph.GRAPH_EDGE_OUT_VERTEX;
+        if (labels.length == 0) {
+            return FluxUtil.getReferencedIds(committed, committed.datoms(Database.AVET, vertexAttribute, id), otherAttribute);
+        }
+        List<LongIterator> ids = new ArrayList<LongIterator>();
+        List<String> unindexedLabels = new ArrayList<String>();
+        for (String label : new LinkedHashSet<String>(Arrays.asList(labels))) {
+            Object index = fluxGraph.getLabelIndex(label, direction, committed);
+            if (index != null) {
+                ids.add(FluxUtil.getReferencedIds(committed, committed.datoms(Database.AVET, index, id), otherAttribute));
+            }
+            else {
+                unindexedLabels.add(label);
+            }
+        }
+        if (!unindexedLabels.isEmpty()) {
+            Collection<List<Object>> edges = Peer.q("[:find ?edge ?other " +
+                                                     ":in $ ?vertex ?vertexAttribute ?otherAttribute [?label ...] " +
+                                                     ":where [?edge ?vertexAttribute ?vertex] " +
+                                                            "[?edge :graph.edge/label ?label] " +
+                                                            "[?edge ?otherAttribute ?other] ]", committed, id, vertexAttribute, otherAttribute,
+                                                     unindexedLabels.toArray(new String[unindexedLabels.size()]));
+            ids.add(FluxUtil.getIds(edges, 1));
+        }
+        return FluxUtil.concat(ids);
+    }
+
+    // Retrieve the number of edges in a particular direction (with one of the labels)
+    public long getDegree(final Direction direction, final String... labels) {
+        return countEdges(direction, labels);
+    }
+
+    // Counts the edges in a particular direction (with one of the labels) by reading the kept degrees or by counting index datoms or query results,
+    // without creating the edges
+    long countEdges(final Direction direction, final String... labels) {
+        if (direction.equals(Direction.BOTH)) {
+            return countEdges(Direction.OUT, labels) + countEdges(Direction.IN, labels);
+        }
+        if (labels.length == 0) {
+            Long degree = fluxGraph.getDegree(this, direction, null);
+            if (degree != null) {
+                return degree;
+            }
+            return FluxUtil.count(getDatabase().datoms(Database.AVET, direction.equals(Direction.OUT) ? fluxGraph.GRAPH_EDGE_OUT_VERTEX : fluxGraph.GRAPH_EDGE_IN_VERTEX, getDatabaseId()));
+        }
+        long count = 0;
+        List<String> unindexedLabels = new ArrayList<String>();
+        for (String label : new LinkedHashSet<String>(Arrays.asList(labels))) {
+            Long degree = fluxGraph.getDegree(this, direction, label);
+            Object index = fluxGraph.getLabelIndex(label, direction, getDatabase());
+            if (degree != null) {
+                count += degree;
+            }
+            else if (index != null) {
+                count += FluxUtil.count(getDatabase().datoms(Database.AVET, index, getDatabaseId()));
+            }
+            else {
+                unindexedLabels.add(label);
+            }
+        }
+        if (!unindexedLabels.isEmpty()) {
+            String[] remainingLabels = unindexedLabels.toArray(new String[unindexedLabels.size()]);
+            count += (direction.equals(Direction.OUT) ? queryOutEdges(remainingLabels) : queryInEdges(remainingLabels)).size();
+        }
+        return count;
+    }
+
+    // Retrieve the edges with one of the labels in a particular direction. Labels with a vertex-centric index are read directly from the
+    // index, the other labels are joined against the edges of this vertex
+    private Iterable<Edge> getLabeledEdges(final Direction direction, final String... labels) {
+        List<Iterable<Edge>> edges = new ArrayList<Iterable<Edge>>();
+        List<String> unindexedLabels = new ArrayList<String>();
+        for (String label : new LinkedHashSet<String>(Arrays.asList(labels))) {
+            Object index = fluxGraph.getLabelIndex(label, direction, getDatabase());
+            if (index != null) {
+                edges.add(new FluxIterable<Edge>(getDatabase().datoms(Database.AVET, index, getDatabaseId()), fluxGraph, database, direction, label));
+            }
+            else {
+                unindexedLabels.add(label);
+            }
+        }
+        if (!unindexedLabels.isEmpty()) {
+            String[] remainingLabels = unindexedLabels.toArray(new String[unindexedLabels.size()]);
+            edges.add(direction.equals(Direction.OUT) ? getOutEdgesByQuery(remainingLabels) : getInEdgesByQuery(remainingLabels));
+        }
+        return edges.size() == 1 ? edges.get(0) : new MultiIterable<Edge>(edges);
+    }
+
     private Iterable<Edge> getInEdges(final String... labels) {
         if (labels.length == 0) {
             return getInEdges();
         }
-        Collection<List<Object>> inEdges = Peer.q("[:find ?edge " +
+        return getLabeledEdges(Direction.IN, labels);
+    }
+
+    private Iterable<Edge> getInEdgesByQuery(final String... labels) {
+        return new FluxIterable<Edge>(queryInEdges(labels), fluxGraph, database, Direction.IN);
+    }
+
+    private Collection<List<Object>> queryInEdges(final String... labels) {
+        return Peer.q("[:find ?edge ?label ?outVertex ?vertex " +
                                                    ":in $ ?vertex [?label ...] " +
                                                    ":where [?edge :graph.edge/inVertex ?vertex] " +
-                                                          "[?edge :graph.edge/label ?label ] ]", getDatabase(), id, labels);
-        return new FluxIterable<Edge>(inEdges, fluxGraph, database, Edge.class);
+                                                          "[?edge :graph.edge/label ?label ] " +
+                                                          "[?edge :graph.edge/outVertex ?outVertex] ]", getDatabase(), getDatabaseId(), labels);
     }
 
     private Iterable<Edge> getInEdges() {
-        Iterable<Datom> inEdges = getDatabase().datoms(Database.AVET, fluxGraph.GRAPH_EDGE_IN_VERTEX, getId());
-        return new FluxIterable<Edge>(inEdges, fluxGraph, database, Edge.class);
+        Iterable<Datom> inEdges = getDatabase().datoms(Database.AVET, fluxGraph.GRAPH_EDGE_IN_VERTEX, getDatabaseId());
+        return new FluxIterable<Edge>(inEdges, fluxGraph, database, Direction.IN);
     }
 
     private Iterable<Edge> getOutEdges(final String... labels) {
         if (labels.length == 0) {
             return getOutEdges();
         }
-        Collection<List<Object>> outEdges = Peer.q("[:find ?edge " +
+        return getLabeledEdges(Direction.OUT, labels);
+    }
+
+    private Iterable<Edge> getOutEdgesByQuery(final String... labels) {
+        return new FluxIterable<Edge>(queryOutEdges(labels), fluxGraph, database, Direction.OUT);
+    }
+
+    private Collection<List<Object>> queryOutEdges(final String... labels) {
+        return Peer.q("[:find ?edge ?label ?vertex ?inVertex " +
                                                     ":in $ ?vertex [?label ...] " +
                                                     ":where [?edge :graph.edge/outVertex ?vertex] " +
-                                                           "[?edge :graph.edge/label ?label ] ]", getDatabase(), id, labels);
-        return new FluxIterable<Edge>(outEdges, fluxGraph, database, Edge.class);
+                                                           "[?edge :graph.edge/label ?label ] " +
+                                                           "[?edge :graph.edge/inVertex ?inVertex] ]", getDatabase(), getDatabaseId(), labels);
     }
 
     private Iterable<Edge> getOutEdges() {
-        Iterable<Datom> outEdges = getDatabase().datoms(Database.AVET, fluxGraph.GRAPH_EDGE_OUT_VERTEX, getId());
-        return new FluxIterable<Edge>(outEdges, fluxGraph, database, Edge.class);
+        Iterable<Datom> outEdges = getDatabase().datoms(Database.AVET, fluxGraph.GRAPH_EDGE_OUT_VERTEX, getDatabaseId());
+        return new FluxIterable<Edge>(outEdges, fluxGraph, database, Direction.OUT);
     }
 
     @Override
@@ -0,0 +1,203 @@
+package com.jnj.fluxgraph;
+
+import com.tinkerpop.blueprints.*;
+import com.tinkerpop.blueprints.util.DefaultVertexQuery;
+import com.tinkerpop.blueprints.util.MultiIterable;
+import com.tinkerpop.blueprints.util.StringFactory;
+import datomic.Peer;
+
+import java.util.*;
+
+/**
+ * Vertex query that compiles the direction, labels and comparison predicates into a single index walk or Datalog query.
+ * Without comparison predicates, the edges are walked from the AVET index (or the vertex-centric index of the labels).
+ * Otherwise, the predicates are joined against the typed attributes of the edges in one Datalog query.
+ * The remaining predicates are evaluated on the (cached) decoded facts of the resulting edges.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class FluxVertexQuery extends DefaultVertexQuery {
+
+    private final FluxVertex fluxVertex;
+
+    public FluxVertexQuery(final FluxVertex vertex) {
+        super(vertex);
+        this.fluxVertex = vertex;
+    }
+
+    @Override
+    public Iterable<Edge> edges() {
+        if (direction.equals(Direction.BOTH)) {
+            return limit(new MultiIterable<Edge>(Arrays.asList(getEdges(Direction.OUT), getEdges(Direction.IN))));
+        }
+        return limit(getEdges(direction));
+    }
+
+    @Override
+    public Iterable<Vertex> vertices() {
+        if (direction.equals(Direction.BOTH)) {
+            return limit(new MultiIterable<Vertex>(Arrays.asList(FluxVertex.getAdjacentVertices(getEdges(Direction.OUT), Direction.IN),
+                                                                 FluxVertex.getAdjacentVertices(getEdges(Direction.IN), Direction.OUT))));
+        }
+        return limit(FluxVertex.getAdjacentVertices(getEdges(direction), direction.equals(Direction.OUT) ? Direction.IN : Direction.OUT));
+    }
+
+    @Override
+    public long count() {
+        // Predicates that are evaluated on the edges themselves require the edges to be created
+        if (!getFilters().isEmpty()) {
+            long count = 0;
+            for (Iterator<Edge> edgesIt = edges().iterator(); edgesIt.hasNext(); edgesIt.next()) {
+                count++;
+            }
+            return count;
+        }
+        long count = 0;
+        for (Direction edgeDirection : getDirections()) {
+            if (getIndexedContainers().isEmpty()) {
+                count += fluxVertex.countEdges(edgeDirection, labels);
+            }
+            else {
+                count += queryEdges(edgeDirection).size();
+            }
+        }
+        return Math.min(count, limit);
+    }
+
+    @Override
+    public Object vertexIds() {
+        List<Object> ids = new ArrayList<Object>();
+        for (Direction edgeDirection : getDirections()) {
+            Direction vertexDirection = edgeDirection.equals(Direction.OUT) ? Direction.IN : Direction.OUT;
+            for (Edge edge : getEdges(edgeDirection)) {
+                if (ids.size() >= limit) {
+                    return ids;
+                }
+                ids.add(((FluxEdge)edge).getVertexId(vertexDirection));
+            }
+        }
+        return ids;
+    }
+
+    // Retrieve the filtered edges in a particular direction (either OUT or IN)
+    private Iterable<Edge> getEdges(final Direction edgeDirection) {
+        Iterable<Edge> edges;
+        if (getIndexedContainers().isEmpty()) {
+            edges = fluxVertex.getEdges(edgeDirection, labels);
+        }
+        else {
+            edges = new FluxIterable<Edge>(queryEdges(edgeDirection), fluxVertex.fluxGraph, fluxVertex.database, edgeDirection);
+        }
+        return filter(edges);
+    }
+
+    // Compiles the labels and comparison predicates into one Datalog query returning the edge, its label, its outgoing vertex and its incoming vertex
+    private Collection<List<Object>> queryEdges(final Direction edgeDirection) {
+        StringBuilder in = new StringBuilder(":in $ ?vertex ");
+        StringBuilder where = new StringBuilder(":where ");
+        List<Object> inputs = new ArrayList<Object>();
+        inputs.add(fluxVertex.getDatabase());
+        inputs.add(fluxVertex.getDatabaseId());
+        String find = edgeDirection.equals(Direction.OUT) ? "[:find ?edge ?label ?vertex ?other " : "[:find ?edge ?label ?other ?vertex ";
+        where.append(edgeDirection.equals(Direction.OUT) ? "[?edge :graph.edge/outVertex ?vertex] " : "[?edge :graph.edge/inVertex ?vertex] ");
+        where.append("[?edge :graph.edge/label ?label] ");
+        if (labels.length > 0) {
+            in.append("[?label ...] ");
+            inputs.add(labels);
+        }
+        int i = 0;
+        for (HasContainer hasContainer : getIndexedContainers()) {
+            Object attribute;
+            if (hasContainer.key.equals(StringFactory.LABEL)) {
+                attribute = fluxVertex.fluxGraph.GRAPH_EDGE_LABEL;
+            }
+            else {
+                attribute = FluxUtil.getAttributeDefinition(hasContainer.key, hasContainer.value.getClass(), Edge.class, fluxVertex.fluxGraph);
+            }
+            if (attribute == null) {
+                // None of the edges can have a value of this type for the key
+                return Collections.emptyList();
+            }
+            in.append("?attribute").append(i).append(" ?value").append(i).append(" ");
+            inputs.add(attribute);
+            inputs.add(FluxUtil.getDatalogValue(hasContainer.value));
+            String operator = FluxUtil.getDatalogOperator(hasContainer.predicate, hasContainer.value);
+            if (operator.equals("=")) {
+                where.append("[?edge ?attribute").append(i).append(" ?value").append(i).append("] ");
+            }
+            else {
+                where.append("[?edge ?attribute").append(i).append(" ?property").append(i).append("] ");
+                where.append("[(").append(operator).append(" ?property").append(i).append(" ?value").append(i).append(")] ");
+            }
+            i++;
+        }
+        where.append(edgeDirection.equals(Direction.OUT) ? "[?edge :graph.edge/inVertex ?other] ]" : "[?edge :graph.edge/outVertex ?other] ]");
+        return Peer.q(find + in + where, inputs.toArray());
+    }
+
+    private List<Direction> getDirections() {
+        if (direction.equals(Direction.BOTH)) {
+            return Arrays.asList(Direction.OUT, Direction.IN);
+        }
+        return Collections.singletonList(direction);
+    }
+
+    // Comparison predicates on values of a supported type can be evaluated by Datomic. The id is not stored as an attribute of the edge,
+    // hence it is evaluated on the edges themselves
+    private boolean isIndexed(final HasContainer hasContainer) {
+        return !hasContainer.key.equals(StringFactory.ID) && FluxUtil.getDatalogOperator(hasContainer.predicate, hasContainer.value) != null;
+    }
+
+    private List<HasContainer> getIndexedContainers() {
+        List<HasContainer> indexed = new ArrayList<HasContainer>();
+        for (HasContainer hasContainer : hasContainers) {
+            if (isIndexed(hasContainer)) {
+                indexed.add(hasContainer);
+            }
+        }
+        return indexed;
+    }
+
+    private List<HasContainer> getFilters() {
+        List<HasContainer> filters = new ArrayList<HasContainer>();
+        for (HasContainer hasContainer : hasContainers) {
+            if (!isIndexed(hasContainer)) {
+                filters.add(hasContainer);
+            }
+        }
+        return filters;
+    }
+
+    // Lazily evaluates the predicates that could not be compiled into the index walk or query
+    private Iterable<Edge> filter(final Iterable<Edge> edges) {
+        final List<HasContainer> filters = getFilters();
+        if (filters.isEmpty()) {
+            return edges;
+        }
+        return new FluxFilterIterable<Edge>(edges, Integer.MAX_VALUE) {
+            @Override
+            protected boolean isLegal(final Edge edge) {
+                for (HasContainer hasContainer : filters) {
+                    if (!hasContainer.isLegal(edge)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    // Stops the iteration once the limit is reached
+    private <T> Iterable<T> limit(final Iterable<T> elements) {
+        if (limit == Integer.MAX_VALUE) {
+            return elements;
+        }
+        return new FluxFilterIterable<T>(elements, limit) {
+            @Override
+            protected boolean isLegal(final T element) {
+                return true;
+            }
+        };
+    }
+
+}
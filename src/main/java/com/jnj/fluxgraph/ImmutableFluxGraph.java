@@ -15,10 +15,15 @@ import java.util.concurrent.ExecutionException;
 public class ImmutableFluxGraph extends FluxGraph {
 
     private FluxGraph originGraph;
+    // The uri of the temporary database that holds the difference graph (null if the graph is not a difference graph)
+    private String differenceURI;
 
+    // Difference graph in a temporary database. Once the facts of the difference are transacted, the graph no longer changes, hence it does
+    // not follow the transaction report queue. Its temporary database is deleted when the graph is shut down
     public ImmutableFluxGraph(final String graphURI, FluxGraph originGraph, Set<Object> differenceFacts) {
         super(graphURI);
         this.originGraph = originGraph;
+        this.differenceURI = graphURI;
         // Add the additional meta model
         try {
             setupAdditionalMetaModel();
@@ -27,6 +32,7 @@ public class ImmutableFluxGraph extends FluxGraph {
                 addToTransaction(differenceFact);
             }
             transact();
+            removeListeners();
         } catch (ExecutionException e) {
             throw new RuntimeException(FluxGraph.DATOMIC_ERROR_EXCEPTION_MESSAGE);
         } catch (InterruptedException e) {
@@ -39,6 +45,14 @@ public class ImmutableFluxGraph extends FluxGraph {
         this.checkpointTime.set(date.getTime());
     }
 
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (differenceURI != null) {
+            Peer.deleteDatabase(differenceURI);
+        }
+    }
+
     @Override
     public TimeAwareEdge addEdge(Object id, Vertex outVertex, Vertex inVertex, String label) {
         throw new IllegalArgumentException("FluxGraph instance is immutable");
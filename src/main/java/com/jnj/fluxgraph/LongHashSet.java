@@ -0,0 +1,104 @@
+package com.jnj.fluxgraph;
+
+import java.util.Arrays;
+
+/**
+ * Set of primitive long values (e.g. the ids of the elements) that stores its values in a single open addressed array instead of
+ * boxing each value into an entry of a HashSet. The set is not thread-safe.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class LongHashSet {
+
+    private long[] table;
+    private int size = 0;
+    private boolean containsEmpty = false;
+
+    public LongHashSet() {
+        this(LongHashing.DEFAULT_CAPACITY);
+    }
+
+    public LongHashSet(final int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("The expected size of the set should be positive");
+        }
+        table = new long[LongHashing.getCapacity(expectedSize)];
+    }
+
+    // Adds a value to the set (returns false if the value was already part of the set)
+    public boolean add(final long value) {
+        // The empty value marks the empty slots of the table, so it is tracked separately
+        if (value == LongHashing.EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size++;
+            return true;
+        }
+        int slot = LongHashing.getSlot(table, value);
+        if (table[slot] == value) {
+            return false;
+        }
+        table[slot] = value;
+        size++;
+        // Keep the table at most half full
+        if (LongHashing.needsResize(size - (containsEmpty ? 1 : 0), table)) {
+            resize();
+        }
+        return true;
+    }
+
+    public void addAll(final LongIterator values) {
+        while (values.hasNext()) {
+            add(values.next());
+        }
+    }
+
+    public boolean contains(final long value) {
+        if (value == LongHashing.EMPTY) {
+            return containsEmpty;
+        }
+        return table[LongHashing.getSlot(table, value)] == value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(table, LongHashing.EMPTY);
+        containsEmpty = false;
+        size = 0;
+    }
+
+    public long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        for (LongIterator valuesIt = iterator(); valuesIt.hasNext(); ) {
+            values[i++] = valuesIt.next();
+        }
+        return values;
+    }
+
+    // Iterates the values of the set (in no particular order). The set should not be changed during the iteration
+    public LongIterator iterator() {
+        return LongHashing.iterator(table, containsEmpty);
+    }
+
+    // Doubles the capacity of the table
+    private void resize() {
+        long[] newTable = new long[table.length * 2];
+        for (long value : table) {
+            if (value != LongHashing.EMPTY) {
+                newTable[LongHashing.getSlot(newTable, value)] = value;
+            }
+        }
+        table = newTable;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.jnj.fluxgraph;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing (linear probing) helpers shared by the hash tables of primitive long values (LongHashSet and LongLongHashMap). The
+ * value 0 marks an empty slot of a table, so the tables track that value separately.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+final class LongHashing {
+
+    // Marks an empty slot of a table
+    static final long EMPTY = 0L;
+    static final int DEFAULT_CAPACITY = 16;
+
+    private LongHashing() {
+    }
+
+    // Retrieve the smallest capacity (a power of two) that keeps a table with the expected number of values at most half full
+    static int getCapacity(final int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Checks whether a table holding the given number of (non-empty) values is more than half full
+    static boolean needsResize(final int tableSize, final long[] table) {
+        return tableSize * 2 > table.length;
+    }
+
+    // Retrieve the slot that contains the value or the empty slot where it should be added (linear probing)
+    static int getSlot(final long[] table, final long value) {
+        int mask = table.length - 1;
+        int slot = hash(value) & mask;
+        while (table[slot] != EMPTY && table[slot] != value) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Iterates the values of a table (in no particular order), starting with the empty value if the table contains it
+    static LongIterator iterator(final long[] table, final boolean containsEmpty) {
+        return new LongIterator() {
+            private boolean returnEmpty = containsEmpty;
+            private int slot = -1;
+
+            @Override
+            public boolean hasNext() {
+                if (returnEmpty) {
+                    return true;
+                }
+                int next = slot + 1;
+                while (next < table.length && table[next] == EMPTY) {
+                    next++;
+                }
+                return next < table.length;
+            }
+
+            @Override
+            public long next() {
+                if (returnEmpty) {
+                    returnEmpty = false;
+                    return EMPTY;
+                }
+                slot++;
+                while (slot < table.length && table[slot] == EMPTY) {
+                    slot++;
+                }
+                if (slot >= table.length) {
+                    throw new NoSuchElementException();
+                }
+                return table[slot];
+            }
+        };
+    }
+
+    // Spreads the bits of the value, as the ids of datomic entities only differ in their lower bits
+    private static int hash(final long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+}
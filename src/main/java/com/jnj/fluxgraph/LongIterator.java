@@ -0,0 +1,15 @@
+package com.jnj.fluxgraph;
+
+/**
+ * Iterator over primitive long values (e.g. the ids of the elements), which avoids boxing each value.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public interface LongIterator {
+
+    public boolean hasNext();
+
+    // Retrieve the next value (throws a NoSuchElementException if there are no more values)
+    public long next();
+
+}
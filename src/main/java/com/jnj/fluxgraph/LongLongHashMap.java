@@ -0,0 +1,97 @@
+package com.jnj.fluxgraph;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to primitive long values (e.g. from a vertex id to the id of its parent in a traversal) that stores its
+ * entries in open addressed arrays instead of boxing each entry into a HashMap. The map is not thread-safe.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class LongLongHashMap {
+
+    private long[] keys;
+    private long[] values;
+    private int size = 0;
+    private boolean containsEmpty = false;
+    private long emptyValue;
+
+    public LongLongHashMap() {
+        keys = new long[LongHashing.DEFAULT_CAPACITY];
+        values = new long[LongHashing.DEFAULT_CAPACITY];
+    }
+
+    // Associates a value with a key (replacing its previous value, if any)
+    public void put(final long key, final long value) {
+        // The empty key marks the empty slots of the table, so it is tracked separately
+        if (key == LongHashing.EMPTY) {
+            if (!containsEmpty) {
+                containsEmpty = true;
+                size++;
+            }
+            emptyValue = value;
+            return;
+        }
+        int slot = LongHashing.getSlot(keys, key);
+        values[slot] = value;
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            size++;
+            // Keep the table at most half full
+            if (LongHashing.needsResize(size - (containsEmpty ? 1 : 0), keys)) {
+                resize();
+            }
+        }
+    }
+
+    // Retrieve the value of a key (the default value if the map does not contain the key)
+    public long get(final long key, final long defaultValue) {
+        if (key == LongHashing.EMPTY) {
+            return containsEmpty ? emptyValue : defaultValue;
+        }
+        int slot = LongHashing.getSlot(keys, key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(final long key) {
+        if (key == LongHashing.EMPTY) {
+            return containsEmpty;
+        }
+        return keys[LongHashing.getSlot(keys, key)] == key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, LongHashing.EMPTY);
+        containsEmpty = false;
+        size = 0;
+    }
+
+    // Iterates the keys of the map (in no particular order). The keys of the map should not be changed during the iteration
+    public LongIterator keys() {
+        return LongHashing.iterator(keys, containsEmpty);
+    }
+
+    // Doubles the capacity of the table
+    private void resize() {
+        long[] newKeys = new long[keys.length * 2];
+        long[] newValues = new long[values.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != LongHashing.EMPTY) {
+                int slot = LongHashing.getSlot(newKeys, keys[i]);
+                newKeys[slot] = keys[i];
+                newValues[slot] = values[i];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+}
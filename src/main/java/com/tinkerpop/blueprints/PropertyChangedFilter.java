@@ -0,0 +1,29 @@
+package com.tinkerpop.blueprints;
+
+/**
+ * Filter that only retains the versions of an element in which the value of a particular property was set, changed or removed.
+ * Implementations of the time aware elements can evaluate this filter on the history of the property without creating the versions.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class PropertyChangedFilter implements TimeAwareFilter {
+
+    private final String key;
+
+    public PropertyChangedFilter(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public TimeAwareElement filter(TimeAwareElement timeAwareElement) {
+        TimeAwareElement previous = timeAwareElement.getPreviousVersion();
+        Object value = timeAwareElement.getProperty(key);
+        Object previousValue = previous != null ? previous.getProperty(key) : null;
+        return (value == null ? previousValue != null : !value.equals(previousValue)) ? timeAwareElement : null;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.tinkerpop.blueprints;
+
+import java.util.Date;
+
+/**
+ * Filter that only retains the versions of an element that were created within a time range
+ * (the start of the range is inclusive, the end of the range is exclusive).
+ * Implementations of the time aware elements can evaluate this filter without creating the versions.
+ *
+ * @author Davy Suvee (http://datablend.be)
+ */
+public class TimeRangeFilter implements TimeAwareFilter {
+
+    private final Date from;
+    private final Date to;
+
+    /**
+     * @param from the start of the range (null for an unbounded start)
+     * @param to the end of the range (null for an unbounded end)
+     */
+    public TimeRangeFilter(Date from, Date to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    /**
+     * Returns true if a version that was created at the time is part of the range
+     */
+    public boolean contains(long time) {
+        return (from == null || time >= from.getTime()) && (to == null || time < to.getTime());
+    }
+
+    @Override
+    public TimeAwareElement filter(TimeAwareElement timeAwareElement) {
+        return contains(timeAwareElement.getTimeInterval().getStartMillis()) ? timeAwareElement : null;
+    }
+
+}
@@ -1,34 +1,82 @@
 package com.tinkerpop.blueprints;
 
-import java.util.HashSet;
-import java.util.Set;
+import com.jnj.fluxgraph.LongHashSet;
+import com.jnj.fluxgraph.LongIterator;
+
+import java.util.Iterator;
 
 /**
  * Container used to defined the working set of vertices and edges
+ * The ids of the (committed) elements are kept as primitive longs
  * @author Davy Suvee (http://datablend.be)
  */
 public class WorkingSet {
 
-    public Set<Object> vertexIdList = new HashSet<Object>();
-    public Set<Object> edgeIdList = new HashSet<Object>();
+    private final LongHashSet vertexIds = new LongHashSet();
+    private final LongHashSet edgeIds = new LongHashSet();
 
     public WorkingSet() {
     }
 
     public void addVertex(Vertex vertex) {
-        vertexIdList.add(vertex.getId());
+        vertexIds.add(getId(vertex));
     }
 
     public void addEdge(Edge edge) {
-        edgeIdList.add(edge.getId());
+        edgeIds.add(getId(edge));
+    }
+
+    public void addVertex(long id) {
+        vertexIds.add(id);
+    }
+
+    public void addEdge(long id) {
+        edgeIds.add(id);
+    }
+
+    public LongHashSet getVertexIds() {
+        return vertexIds;
+    }
+
+    public LongHashSet getEdgeIds() {
+        return edgeIds;
     }
 
     public Iterable<Object> getVertices() {
-        return vertexIdList;
+        return getIds(vertexIds);
     }
 
     public Iterable<Object> getEdges() {
-        return edgeIdList;
+        return getIds(edgeIds);
+    }
+
+    // Only elements that are committed have a (long) id that identifies them in the different versions of the graph
+    private static long getId(Element element) {
+        if (!(element.getId() instanceof Long)) {
+            throw new IllegalArgumentException("Only committed elements can be part of a working set");
+        }
+        return (Long)element.getId();
+    }
+
+    private static Iterable<Object> getIds(final LongHashSet ids) {
+        return new Iterable<Object>() {
+            public Iterator<Object> iterator() {
+                final LongIterator idsIt = ids.iterator();
+                return new Iterator<Object>() {
+                    public boolean hasNext() {
+                        return idsIt.hasNext();
+                    }
+
+                    public Object next() {
+                        return idsIt.next();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
     }
 
 }
@@ -1,12 +1,22 @@
 package com.jnj.fluxgraph;
 
+import clojure.lang.Keyword;
 import com.tinkerpop.blueprints.*;
 import com.tinkerpop.blueprints.impls.GraphTest;
 import com.tinkerpop.blueprints.util.io.gml.GMLReaderTestSuite;
 import com.tinkerpop.blueprints.util.io.graphml.GraphMLReaderTestSuite;
 import com.tinkerpop.blueprints.util.io.graphson.GraphSONReaderTestSuite;
+import datomic.Database;
+import datomic.Util;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -54,6 +64,12 @@ public class FluxGraphTest extends GraphTest {
         printTestPerformance("KeyIndexableGraphTestSuite", this.stopWatch());
     }
 
+    public void testTransactionalGraphTestSuite() throws Exception {
+        this.stopWatch();
+        doTestSuite(new TransactionalGraphTestSuite(this));
+        printTestPerformance("TransactionalGraphTestSuite", this.stopWatch());
+    }
+
     public void testGraphMLReaderTestSuite() throws Exception {
         this.stopWatch();
         doTestSuite(new GraphMLReaderTestSuite(this));
@@ -72,6 +88,855 @@ public class FluxGraphTest extends GraphTest {
         printTestPerformance("GMLReaderTestSuite", this.stopWatch());
     }
 
+    public void testBatchGraph() throws Exception {
+        String graphURI = "datomic:mem://tinkerpop" + UUID.randomUUID();
+        BatchFluxGraph graph = new BatchFluxGraph(graphURI, 10);
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        // The buffered statements are committed once the buffer size is reached
+        Vertex first = addNamedVertex(graph, vertices);
+        assertFalse(first.getId() instanceof Long);
+        while (!(first.getId() instanceof Long)) {
+            assertTrue(vertices.size() <= graph.getBufferSize());
+            addNamedVertex(graph, vertices);
+        }
+        assertEquals(vertices.size(), FluxUtil.count(graph.getCommittedGraph().datoms(Database.AVET, graph.GRAPH_ELEMENT_TYPE, graph.GRAPH_ELEMENT_TYPE_VERTEX)));
+        // An edge between a committed vertex and a buffered vertex is resolved once its buffer is committed
+        Vertex buffered = addNamedVertex(graph, vertices);
+        Edge edge = graph.addEdge(null, first, buffered, "knows");
+        while (!(edge.getId() instanceof Long)) {
+            addNamedVertex(graph, vertices);
+        }
+        assertTrue(buffered.getId() instanceof Long);
+        assertEquals(first, graph.getEdge(edge.getId()).getVertex(Direction.OUT));
+        assertEquals(buffered, graph.getEdge(edge.getId()).getVertex(Direction.IN));
+        // The remaining statements are committed by the shutdown
+        Vertex last = addNamedVertex(graph, vertices);
+        graph.shutdown();
+        assertTrue(last.getId() instanceof Long);
+        FluxGraph reopened = new FluxGraph(graphURI);
+        assertEquals(vertices.size(), reopened.countVertices());
+        assertEquals(1, reopened.countEdges());
+        for (Vertex vertex : vertices) {
+            assertEquals(vertex.getProperty("name"), reopened.getVertex(vertex.getId()).getProperty("name"));
+        }
+        reopened.shutdown();
+    }
+
+    public void testNewElementIds() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        Vertex other = graph.addVertex(null);
+        other.setProperty("name", "josh");
+        Edge edge = graph.addEdge(null, vertex, other, "knows");
+        // The ids of the new elements are temporary until the transaction is committed
+        assertFalse(vertex.getId() instanceof Long);
+        graph.commit();
+        // The ids of the new elements are resolved from the temporary ids of the transaction, without an ident per element
+        Database database = graph.getRawGraph();
+        assertTrue(vertex.getId() instanceof Long);
+        assertTrue(other.getId() instanceof Long);
+        assertTrue(edge.getId() instanceof Long);
+        assertEquals(3, new HashSet<Object>(Arrays.asList(vertex.getId(), other.getId(), edge.getId())).size());
+        for (Element element : Arrays.<Element>asList(vertex, other, edge)) {
+            assertNull(database.entity(element.getId()).get(":db/ident"));
+        }
+        assertEquals("marko", graph.getVertex(vertex.getId()).getProperty("name"));
+        assertEquals("josh", graph.getVertex(other.getId()).getProperty("name"));
+        assertEquals(vertex, graph.getEdge(edge.getId()).getVertex(Direction.OUT));
+        assertEquals(other, graph.getEdge(edge.getId()).getVertex(Direction.IN));
+        graph.shutdown();
+    }
+
+    public void testMetaModelUpgrade() throws Exception {
+        String graphURI = "datomic:mem://tinkerpop" + UUID.randomUUID();
+        FluxGraph graph = new FluxGraph(graphURI);
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        Vertex other = graph.addVertex(null);
+        Edge edge = graph.addEdge(null, vertex, other, "knows");
+        graph.commit();
+        // Turn the graph into a graph of version 1: each element has an ident, the version is not kept and the database functions are missing
+        List statements = new ArrayList();
+        for (Element element : Arrays.<Element>asList(vertex, other, edge)) {
+            statements.add(Util.list(":db/add", element.getId(), ":db/ident", Keyword.intern(UUID.randomUUID().toString())));
+        }
+        statements.add(Util.list(":db/retract", ":graph/meta", ":graph.meta/version", 3L));
+        statements.add(Util.list(":db/retract", FluxUtil.INDEX_EDGE, ":db/ident", FluxUtil.INDEX_EDGE));
+        statements.add(Util.list(":db/retract", FluxUtil.ADJUST_DEGREES, ":db/ident", FluxUtil.ADJUST_DEGREES));
+        graph.getConnection().transact(statements).get();
+        graph.shutdown();
+        // Opening the graph upgrades it to the current version
+        graph = new FluxGraph(graphURI);
+        Database database = graph.getRawGraph();
+        assertEquals(3L, database.entity(":graph/meta").get(":graph.meta/version"));
+        assertNotNull(database.entid(FluxUtil.INDEX_EDGE));
+        assertNotNull(database.entid(FluxUtil.ADJUST_DEGREES));
+        for (Element element : Arrays.<Element>asList(vertex, other, edge)) {
+            assertNull(database.entity(element.getId()).get(":db/ident"));
+        }
+        // The elements keep their ids and the retraction of the ident is a new version of the element
+        TimeAwareVertex upgraded = graph.getVertex(vertex.getId());
+        assertFalse(upgraded.isDeleted());
+        assertEquals("marko", upgraded.getProperty("name"));
+        assertEquals("marko", upgraded.getPreviousVersion().getProperty("name"));
+        assertEquals(edge.getId(), upgraded.getEdges(Direction.OUT, "knows").iterator().next().getId());
+        assertEquals(other, graph.getEdge(edge.getId()).getVertex(Direction.IN));
+        // The upgrade is only run once
+        long basisT = database.basisT();
+        graph.shutdown();
+        graph = new FluxGraph(graphURI);
+        assertEquals(basisT, graph.getRawGraph().basisT());
+        graph.shutdown();
+    }
+
+    public void testRemoveElementsWithPendingFacts() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        Vertex other = graph.addVertex(null);
+        Edge edge = graph.addEdge(null, vertex, other, "knows");
+        graph.commit();
+        // Facts that are pending for a removed element should not be asserted again after its retraction
+        edge.setProperty("weight", 1.0d);
+        vertex.setProperty("name", "marko");
+        graph.removeEdge(edge);
+        graph.removeVertex(vertex);
+        graph.commit();
+        Database database = graph.getRawGraph();
+        assertFalse(database.datoms(Database.EAVT, vertex.getId()).iterator().hasNext());
+        assertFalse(database.datoms(Database.EAVT, edge.getId()).iterator().hasNext());
+        assertEquals(1, graph.countVertices());
+        assertEquals(0, graph.countEdges());
+        graph.shutdown();
+    }
+
+    public void testReadsWithinTransaction() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex committed = graph.addVertex(null);
+        graph.commit();
+        // Reads within a transaction see the pending statements, also when they are added after a previous read
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        assertEquals("marko", vertex.getProperty("name"));
+        committed.setProperty("name", "josh");
+        assertEquals("josh", committed.getProperty("name"));
+        graph.addEdge(null, vertex, committed, "knows");
+        assertEquals(1, count(vertex.getVertices(Direction.OUT)));
+        assertEquals(1, count(committed.getVertices(Direction.IN)));
+        committed.setProperty("city", "brussels");
+        assertEquals("brussels", committed.getProperty("city"));
+        committed.setProperty("name", "peter");
+        assertEquals("peter", committed.getProperty("name"));
+        assertEquals(2, count(graph.getVertices()));
+        graph.rollback();
+        assertEquals(1, count(graph.getVertices()));
+        assertNull(committed.getProperty("name"));
+        graph.shutdown();
+    }
+
+    public void testSchemaCatalog() throws Exception {
+        String graphURI = "datomic:mem://tinkerpop" + UUID.randomUUID();
+        FluxGraph graph = new FluxGraph(graphURI);
+        FluxGraph other = new FluxGraph(graphURI);
+        other.addEdge(null, other.addVertex(null), other.addVertex(null), "knows");
+        other.commit();
+        assertFalse(graph.getSchema().hasLabelIndexes());
+        // The attributes and complete indexes that are installed through another graph are seen on the transaction report queue
+        other.createLabelIndex("knows");
+        for (int i = 0; i < 100 && !graph.getSchema().hasLabelIndexes(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(graph.getSchema().hasLabelIndexes());
+        for (int i = 0; i < 100 && graph.getLabelIndex("knows", Direction.OUT, other.getRawGraph()) == null; i++) {
+            Thread.sleep(50);
+        }
+        assertNotNull(graph.getLabelIndex("knows", Direction.OUT, other.getRawGraph()));
+        // A graph that is shut down no longer follows the queue, the other graphs of the connection still do
+        other.shutdown();
+        FluxGraph third = new FluxGraph(graphURI);
+        third.createDegreeIndex();
+        for (int i = 0; i < 100 && !graph.getSchema().hasDegreeIndexes(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(graph.getSchema().hasDegreeIndexes());
+        third.shutdown();
+        graph.shutdown();
+        // The attributes and complete indexes are loaded at startup
+        graph = new FluxGraph(graphURI);
+        assertTrue(graph.getSchema().hasLabelIndexes());
+        assertTrue(graph.getSchema().hasDegreeIndexes());
+        assertNotNull(graph.getLabelIndex("knows", Direction.OUT, graph.getRawGraph()));
+        assertNotNull(graph.getDegreeIndex(null, Direction.OUT));
+        graph.shutdown();
+    }
+
+    public void testPropertyAccess() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        vertex.setProperty("age", 29L);
+        graph.commit();
+        TimeAwareVertex committed = graph.getVertex(vertex.getId());
+        assertFalse(committed.isDeleted());
+        assertEquals(new HashSet<String>(Arrays.asList("name", "age")), committed.getPropertyKeys());
+        assertEquals("marko", committed.getProperty("name"));
+        assertEquals(29L, committed.getProperty("age"));
+        assertNull(committed.getProperty("city"));
+        // A value of another type replaces the value that is stored in the attribute of the original type
+        vertex.setProperty("age", "unknown");
+        graph.commit();
+        committed = graph.getVertex(vertex.getId());
+        assertEquals(new HashSet<String>(Arrays.asList("name", "age")), committed.getPropertyKeys());
+        assertEquals("unknown", committed.getProperty("age"));
+        graph.removeVertex(vertex);
+        graph.commit();
+        assertTrue(graph.getVertex(vertex.getId()).isDeleted());
+        graph.shutdown();
+    }
+
+    public void testCache() throws Exception {
+        FluxGraph graph = new FluxGraph("datomic:mem://tinkerpop" + UUID.randomUUID(), 16);
+        FluxCache cache = graph.getCache();
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        graph.commit();
+        // The decoded facts of an element are shared between the element instances of the same database value
+        assertEquals("marko", graph.getVertex(vertex.getId()).getProperty("name"));
+        long hits = cache.getHits();
+        assertEquals("marko", graph.getVertex(vertex.getId()).getProperty("name"));
+        assertTrue(cache.getHits() > hits);
+        // A new database value is not served from the facts that were decoded for the previous one
+        vertex.setProperty("name", "josh");
+        graph.commit();
+        assertEquals("josh", graph.getVertex(vertex.getId()).getProperty("name"));
+        // The least recently used entries are evicted once the cache is full
+        for (int i = 0; i < 100; i++) {
+            graph.addVertex(null).setProperty("name", "vertex" + i);
+        }
+        graph.commit();
+        for (Vertex other : graph.getVertices()) {
+            other.getPropertyKeys();
+        }
+        assertTrue(cache.size() <= cache.getCapacity());
+        assertTrue(cache.getEvictions() > 0);
+        graph.shutdown();
+        // A cache size of 0 disables the cache
+        graph = new FluxGraph("datomic:mem://tinkerpop" + UUID.randomUUID(), 0);
+        assertNull(graph.getCache());
+        graph.shutdown();
+    }
+
+    public void testEdgeRecord() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        Vertex other = graph.addVertex(null);
+        Edge edge = graph.addEdge(null, vertex, other, "knows");
+        graph.commit();
+        // The label and both vertices are loaded from the edge itself
+        FluxEdge committed = (FluxEdge)graph.getEdge(edge.getId());
+        assertEquals("knows", committed.getLabel());
+        assertEquals(vertex.getId(), committed.getVertexId(Direction.OUT));
+        assertEquals(other, committed.getVertex(Direction.IN));
+        // The edges of a vertex carry the facts of the adjacency lookup
+        for (Direction direction : Arrays.asList(Direction.OUT, Direction.IN)) {
+            Vertex adjacent = direction.equals(Direction.OUT) ? vertex : other;
+            FluxEdge adjacentEdge = (FluxEdge)adjacent.getEdges(direction, "knows").iterator().next();
+            assertEquals("knows", adjacentEdge.getLabel());
+            assertEquals(vertex, adjacentEdge.getVertex(Direction.OUT));
+            assertEquals(other, adjacentEdge.getVertex(Direction.IN));
+        }
+        graph.shutdown();
+    }
+
+    public void testAdjacentVertices() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        Vertex known = graph.addVertex(null);
+        Vertex created = graph.addVertex(null);
+        graph.addEdge(null, vertex, known, "knows");
+        graph.addEdge(null, vertex, created, "created");
+        graph.addEdge(null, known, vertex, "knows");
+        graph.commit();
+        assertEquals(2, count(vertex.getVertices(Direction.OUT)));
+        assertEquals(1, count(vertex.getVertices(Direction.IN)));
+        assertEquals(3, count(vertex.getVertices(Direction.BOTH)));
+        assertEquals(2, count(vertex.getVertices(Direction.BOTH, "knows")));
+        assertEquals(created, vertex.getVertices(Direction.OUT, "created").iterator().next());
+        assertEquals(vertex, created.getVertices(Direction.IN).iterator().next());
+        // The iteration is repeatable and the neighbours are streamed one by one
+        Iterable<Vertex> vertices = vertex.getVertices(Direction.OUT, "knows");
+        for (int i = 0; i < 2; i++) {
+            Iterator<Vertex> verticesIt = vertices.iterator();
+            assertTrue(verticesIt.hasNext());
+            assertTrue(verticesIt.hasNext());
+            assertEquals(known, verticesIt.next());
+            assertFalse(verticesIt.hasNext());
+        }
+        graph.shutdown();
+    }
+
+    public void testLabelIndexAtCheckpoint() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        Vertex vertex = graph.addVertex(null);
+        graph.addEdge(null, vertex, graph.addVertex(null), "knows");
+        graph.addEdge(null, vertex, graph.addVertex(null), "created");
+        graph.commit();
+        // The edges are only passed to the database function once a label index is created
+        assertFalse(graph.getSchema().hasLabelIndexes());
+        graph.setTransactionTime(new Date(2000));
+        graph.createLabelIndex("knows");
+        assertTrue(graph.getSchema().hasLabelIndexes());
+        graph.addEdge(null, vertex, graph.addVertex(null), "knows");
+        graph.commit();
+        assertNotNull(graph.getLabelIndex("knows", Direction.OUT, graph.getRawGraph()));
+        assertEquals(2, count(vertex.getEdges(Direction.OUT, "knows")));
+        assertEquals(2, ((FluxVertex)vertex).getDegree(Direction.OUT, "knows"));
+        // The index is not complete before it got created, hence the labeled edges are looked up through their label
+        graph.setCheckpointTime(new Date(1500));
+        assertNull(graph.getLabelIndex("knows", Direction.OUT, graph.getRawGraph()));
+        Vertex checkpoint = graph.getVertex(vertex.getId());
+        assertEquals(1, count(checkpoint.getEdges(Direction.OUT, "knows")));
+        assertEquals(1, count(checkpoint.getVertices(Direction.OUT, "knows")));
+        assertEquals(1, ((FluxVertex)checkpoint).getDegree(Direction.OUT, "knows"));
+        graph.shutdown();
+    }
+
+    public void testVertexQuery() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        double[] weights = {0.2d, 0.5d, 0.8d};
+        for (double weight : weights) {
+            graph.addEdge(null, vertex, graph.addVertex(null), "knows").setProperty("weight", weight);
+        }
+        Edge created = graph.addEdge(null, vertex, graph.addVertex(null), "created");
+        created.setProperty("weight", 1.0d);
+        graph.addEdge(null, graph.addVertex(null), vertex, "knows");
+        graph.commit();
+        assertEquals(4, vertex.query().direction(Direction.OUT).count());
+        assertEquals(3, vertex.query().direction(Direction.OUT).labels("knows").count());
+        assertEquals(4, vertex.query().direction(Direction.BOTH).labels("knows").count());
+        assertEquals(2, vertex.query().direction(Direction.BOTH).labels("knows").limit(2).count());
+        // Comparison predicates are joined against the properties of the edges
+        assertEquals(2, vertex.query().direction(Direction.OUT).labels("knows").has("weight", Compare.GREATER_THAN_EQUAL, 0.5d).count());
+        assertEquals(2, count(vertex.query().direction(Direction.OUT).has("weight", Compare.GREATER_THAN, 0.5d).vertices()));
+        assertEquals(1, count(vertex.query().direction(Direction.OUT).interval("weight", 0.4d, 0.6d).edges()));
+        assertEquals(0, vertex.query().direction(Direction.IN).has("weight", Compare.GREATER_THAN, 0.0d).count());
+        assertEquals(1, count((List)vertex.query().direction(Direction.OUT).labels("created").vertexIds()));
+        // The label is joined against the label of the edges, the id is evaluated on the edges themselves
+        assertEquals(3, vertex.query().direction(Direction.OUT).has("label", "knows").count());
+        assertEquals(1, count(vertex.query().direction(Direction.OUT).has("label", Compare.NOT_EQUAL, "knows").edges()));
+        assertEquals(2, vertex.query().direction(Direction.BOTH).has("label", "knows").has("weight", Compare.LESS_THAN, 0.6d).count());
+        assertEquals(created, vertex.query().direction(Direction.OUT).has("id", created.getId()).edges().iterator().next());
+        assertEquals(1, vertex.query().direction(Direction.BOTH).has("id", created.getId()).count());
+        assertEquals(0, vertex.query().direction(Direction.IN).has("id", created.getId()).count());
+        graph.shutdown();
+    }
+
+    public void testGraphQueryClauses() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        String[] names = {"marko", "josh", "peter", "marko"};
+        long[] ages = {29L, 32L, 35L, 40L};
+        List<Vertex> vertices = new ArrayList<Vertex>();
+        for (int i = 0; i < names.length; i++) {
+            Vertex vertex = graph.addVertex(null);
+            vertex.setProperty("name", names[i]);
+            vertex.setProperty("age", ages[i]);
+            vertices.add(vertex);
+        }
+        graph.commit();
+        // A single clause is evaluated without estimating its selectivity, multiple clauses are ordered by their estimate
+        assertEquals(2, count(graph.query().has("name", "marko").vertices()));
+        assertEquals(1, count(graph.query().has("name", "marko").has("age", Compare.GREATER_THAN, 30L).vertices()));
+        assertEquals(2, count(graph.query().has("age", Compare.GREATER_THAN_EQUAL, 32L).has("age", Compare.LESS_THAN, 40L).vertices()));
+        assertEquals(0, count(graph.query().has("name", "marko").has("age", Compare.EQUAL, 35L).vertices()));
+        // The id is evaluated on the elements themselves
+        Object id = vertices.get(0).getId();
+        assertEquals(vertices.get(0), graph.query().has("id", id).vertices().iterator().next());
+        assertEquals(1, count(graph.query().has("id", id).has("name", "marko").vertices()));
+        assertEquals(0, count(graph.query().has("id", id).has("name", "josh").vertices()));
+        assertEquals(3, count(graph.query().has("id", Compare.NOT_EQUAL, id).vertices()));
+        graph.shutdown();
+    }
+
+    public void testIndexRanges() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.createKeyIndex("age", Vertex.class);
+        String[] names = {"marko", "josh", "peter", "mark"};
+        long[] ages = {29L, 32L, 35L, 40L};
+        for (int i = 0; i < names.length; i++) {
+            Vertex vertex = graph.addVertex(null);
+            vertex.setProperty("name", names[i]);
+            vertex.setProperty("age", ages[i]);
+        }
+        graph.commit();
+        FluxIndex<Vertex> index = graph.getVertexIndex();
+        // The indexed key is walked through an index range, the other key through a scan of its values
+        assertEquals(2, count(index.interval("age", 30L, 40L)));
+        assertEquals(3, count(index.query("age", Compare.LESS_THAN_EQUAL, 35L)));
+        assertEquals(1, count(index.query("age", Compare.GREATER_THAN, 35L)));
+        assertEquals(3, count(index.query("age", Compare.NOT_EQUAL, 29L)));
+        assertEquals(2, count(index.prefix("name", "mar")));
+        assertEquals(1, count(index.prefix("name", "marko")));
+        assertEquals(0, count(index.prefix("name", "z")));
+        assertEquals(1, count(index.interval("name", "j", "m")));
+        assertEquals(0, count(index.prefix("city", "b")));
+        // Strings with the highest characters right after the prefix are part of the range as well (for the indexed and the other key)
+        graph.createKeyIndex("alias", Vertex.class);
+        String[] aliases = {"mar" + Character.MAX_VALUE, "mar\uD83D\uDE00", "mark", "mas"};
+        for (String alias : aliases) {
+            Vertex vertex = graph.addVertex(null);
+            vertex.setProperty("name", alias);
+            vertex.setProperty("alias", alias);
+        }
+        graph.commit();
+        for (String key : Arrays.asList("alias", "name")) {
+            assertEquals(key.equals("name") ? 5 : 3, count(index.prefix(key, "mar")));
+            assertEquals(1, count(index.prefix(key, "mar" + Character.MAX_VALUE)));
+            assertEquals(key.equals("name") ? 8 : 4, count(index.prefix(key, "")));
+        }
+        graph.shutdown();
+    }
+
+    public void testFulltextIndex() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.createKeyIndex("description", Vertex.class, FluxGraph.FULLTEXT);
+        assertTrue(graph.getIndexedKeys(Vertex.class).contains("description"));
+        graph.addVertex(null).setProperty("description", "a graph database on top of datomic");
+        graph.addVertex(null).setProperty("description", "a time aware graph");
+        graph.addVertex(null).setProperty("name", "marko");
+        graph.commit();
+        FluxIndex<Vertex> index = graph.getVertexIndex();
+        assertEquals(2, count(index.query("description", "graph")));
+        assertEquals(1, count(index.query("description", "datomic")));
+        assertEquals(0, count(index.query("description", "tinkerpop")));
+        assertEquals(0, count(index.query("city", "brussels")));
+        // A key that was created without a fulltext index can not be queried
+        try {
+            index.query("name", "marko");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            graph.createKeyIndex("name", Vertex.class, FluxGraph.FULLTEXT);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        graph.shutdown();
+    }
+
+    public void testCounts() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.createKeyIndex("name", Vertex.class);
+        FluxVertex vertex = (FluxVertex)graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        Vertex other = graph.addVertex(null);
+        other.setProperty("name", "marko");
+        other.setProperty("age", 29L);
+        graph.addVertex(null).setProperty("age", "unknown");
+        graph.addEdge(null, vertex, other, "knows");
+        graph.addEdge(null, vertex, other, "created");
+        graph.addEdge(null, other, vertex, "knows");
+        graph.commit();
+        assertEquals(3, graph.countVertices());
+        assertEquals(3, graph.countEdges());
+        // The indexed key is counted in the value index, the other keys through a scan of their values
+        FluxIndex<Vertex> vertexIndex = graph.getVertexIndex();
+        assertEquals(2, vertexIndex.count("name", "marko"));
+        assertEquals(0, vertexIndex.count("name", "josh"));
+        assertEquals(1, vertexIndex.count("age", 29L));
+        assertEquals(2, vertexIndex.count("age"));
+        assertEquals(0, vertexIndex.count("city"));
+        assertEquals(2, graph.getEdgeIndex().count("label", "knows"));
+        assertEquals(2, vertex.getDegree(Direction.OUT));
+        assertEquals(1, vertex.getDegree(Direction.IN, "knows"));
+        assertEquals(3, vertex.getDegree(Direction.BOTH));
+        graph.removeVertex(other);
+        graph.commit();
+        assertEquals(2, graph.countVertices());
+        assertEquals(0, graph.countEdges());
+        assertEquals(0, vertex.getDegree(Direction.BOTH));
+        graph.shutdown();
+    }
+
+    public void testDegreeIndex() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        FluxVertex vertex = (FluxVertex)graph.addVertex(null);
+        graph.addEdge(null, vertex, graph.addVertex(null), "knows");
+        graph.addEdge(null, vertex, graph.addVertex(null), "created");
+        graph.commit();
+        // The degrees are only adjusted once a degree index is created
+        assertFalse(graph.getSchema().hasDegreeIndexes());
+        graph.setTransactionTime(new Date(2000));
+        graph.createDegreeIndex();
+        graph.createDegreeIndex("knows");
+        assertTrue(graph.getSchema().hasDegreeIndexes());
+        assertEquals(Long.valueOf(2), graph.getDegree(vertex, Direction.OUT, null));
+        assertEquals(Long.valueOf(1), graph.getDegree(vertex, Direction.OUT, "knows"));
+        // The degrees are adjusted for the edges that are added or removed
+        graph.setTransactionTime(new Date(3000));
+        Edge edge = graph.addEdge(null, vertex, graph.addVertex(null), "knows");
+        assertEquals(3, vertex.getDegree(Direction.OUT));
+        graph.commit();
+        assertEquals(Long.valueOf(3), graph.getDegree(vertex, Direction.OUT, null));
+        assertEquals(Long.valueOf(2), graph.getDegree(vertex, Direction.OUT, "knows"));
+        graph.setTransactionTime(new Date(4000));
+        graph.removeEdge(edge);
+        graph.commit();
+        assertEquals(Long.valueOf(2), graph.getDegree(vertex, Direction.OUT, null));
+        assertEquals(Long.valueOf(1), graph.getDegree(vertex, Direction.OUT, "knows"));
+        assertEquals(1, count(graph.getSupernodes(Direction.OUT, 2)));
+        // The degrees of an older version of the graph
+        graph.setCheckpointTime(new Date(3500));
+        FluxVertex checkpoint = (FluxVertex)graph.getVertex(vertex.getId());
+        assertEquals(Long.valueOf(3), graph.getDegree(checkpoint, Direction.OUT, null));
+        assertEquals(2, checkpoint.getDegree(Direction.OUT, "knows"));
+        // The index is not complete before it got created, hence the edges are counted
+        graph.setCheckpointTime(new Date(1500));
+        checkpoint = (FluxVertex)graph.getVertex(vertex.getId());
+        assertNull(graph.getDegree(checkpoint, Direction.OUT, null));
+        assertEquals(2, checkpoint.getDegree(Direction.OUT));
+        assertEquals(1, checkpoint.getDegree(Direction.OUT, "knows"));
+        graph.shutdown();
+    }
+
+    public void testScan() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        for (int i = 0; i < 10; i++) {
+            Vertex vertex = graph.addVertex(null);
+            vertex.setProperty("name", "vertex" + i);
+            graph.addEdge(null, vertex, vertex, "self");
+        }
+        graph.commit();
+        // Handles on existing elements only wrap their id
+        assertEquals(graph.getVertex(graph.vertexIds().next()), graph.getVertex(graph.vertexIds().next()));
+        // A single element is pointed at each vertex in turn, hence the properties are those of the current vertex
+        Vertex previous = null;
+        Set<Object> ids = new HashSet<Object>();
+        Set<Object> names = new HashSet<Object>();
+        for (Vertex vertex : graph.scanVertices()) {
+            if (previous != null) {
+                assertSame(previous, vertex);
+            }
+            previous = vertex;
+            ids.add(vertex.getId());
+            names.add(vertex.getProperty("name"));
+        }
+        assertEquals(10, ids.size());
+        assertEquals(10, names.size());
+        Set<Object> edgeIds = new HashSet<Object>();
+        for (Edge edge : graph.scanEdges()) {
+            assertEquals("self", edge.getLabel());
+            assertEquals(edge.getVertex(Direction.OUT), edge.getVertex(Direction.IN));
+            edgeIds.add(edge.getId());
+        }
+        assertEquals(10, edgeIds.size());
+        graph.shutdown();
+    }
+
+    public void testPartitions() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        for (int i = 0; i < 10; i++) {
+            Vertex vertex = graph.addVertex(null);
+            vertex.setProperty("name", "vertex" + i);
+            graph.addEdge(null, vertex, vertex, "self");
+        }
+        graph.commit();
+        // The partitions are disjoint, ordered ranges of ids that together cover all vertices
+        List<FluxPartition<Vertex>> partitions = graph.getVertexPartitions(3);
+        assertEquals(3, partitions.size());
+        Set<Object> ids = new HashSet<Object>();
+        long previousId = Long.MIN_VALUE;
+        for (FluxPartition<Vertex> partition : partitions) {
+            assertTrue(partition.size() >= 3);
+            assertTrue(partition.getStartId() > previousId);
+            assertTrue(partition.getEndId() >= partition.getStartId());
+            previousId = partition.getEndId();
+            assertEquals(partition.size(), countIds(partition.ids()));
+            for (Vertex vertex : partition) {
+                assertTrue(((Long)vertex.getId()) >= partition.getStartId() && ((Long)vertex.getId()) <= partition.getEndId());
+                assertNotNull(vertex.getProperty("name"));
+                ids.add(vertex.getId());
+            }
+        }
+        assertEquals(10, ids.size());
+        // No more partitions are created than there are elements
+        assertEquals(10, graph.getEdgePartitions(20).size());
+        assertEquals(10, graph.getEdgePartitions(1).get(0).size());
+        // All partitions are read from the database value they were created for
+        graph.addVertex(null);
+        graph.commit();
+        assertEquals(10, count(partitions.get(0)) + count(partitions.get(1)) + count(partitions.get(2)));
+        try {
+            graph.getVertexPartitions(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        graph.shutdown();
+    }
+
+    public void testNeighborIds() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        FluxVertex vertex = (FluxVertex)graph.addVertex(null);
+        Vertex known = graph.addVertex(null);
+        Vertex created = graph.addVertex(null);
+        graph.addEdge(null, vertex, known, "knows");
+        graph.addEdge(null, vertex, created, "created");
+        graph.addEdge(null, known, vertex, "knows");
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        graph.createLabelIndex("knows");
+        graph.addEdge(null, vertex, created, "knows");
+        graph.commit();
+        assertEquals(3, countIds(vertex.neighborIds(Direction.OUT)));
+        assertEquals(2, countIds(vertex.neighborIds(Direction.OUT, "knows")));
+        assertEquals(3, countIds(vertex.neighborIds(Direction.OUT, "knows", "created")));
+        assertEquals(3, countIds(vertex.neighborIds(Direction.BOTH, "knows")));
+        LongIterator ids = vertex.neighborIds(Direction.IN, "knows");
+        assertEquals(((Long)known.getId()).longValue(), ids.next());
+        assertFalse(ids.hasNext());
+        // The index is not complete before it got created, hence the neighbours are looked up through the label of the edges
+        graph.setCheckpointTime(new Date(1500));
+        FluxVertex checkpoint = (FluxVertex)graph.getVertex(vertex.getId());
+        assertEquals(1, countIds(checkpoint.neighborIds(Direction.OUT, "knows")));
+        assertEquals(2, countIds(checkpoint.neighborIds(Direction.BOTH, "knows")));
+        graph.shutdown();
+    }
+
+    public void testTraversal() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        Vertex a = graph.addVertex(null);
+        Vertex b = graph.addVertex(null);
+        Vertex c = graph.addVertex(null);
+        Vertex d = graph.addVertex(null);
+        graph.addEdge(null, a, b, "knows");
+        graph.addEdge(null, b, c, "knows");
+        graph.addEdge(null, a, d, "created");
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        graph.createLabelIndex("knows");
+        graph.addEdge(null, c, d, "knows");
+        graph.commit();
+        long[] seeds = new long[]{(Long)a.getId()};
+        assertEquals(3, graph.expand(seeds, Direction.OUT, 3, "knows").size());
+        assertEquals(2, graph.expand(seeds, Direction.OUT, 1).size());
+        assertEquals(1, new FluxTraversal(graph).labels("knows").limit(1).expand(seeds, 1).size());
+        LongHashSet reached = graph.expand(new long[]{(Long)d.getId()}, Direction.IN, 1, "knows", "created");
+        assertTrue(reached.contains((Long)a.getId()));
+        assertTrue(reached.contains((Long)c.getId()));
+        // The index is not complete before it got created, hence the hops are joined against the label of the edges
+        graph.setCheckpointTime(new Date(1500));
+        assertEquals(2, graph.expand(seeds, Direction.OUT, 3, "knows").size());
+        assertEquals(1, graph.expand(new long[]{(Long)c.getId()}, Direction.IN, 1, "knows").size());
+        graph.shutdown();
+    }
+
+    public void testShortestPath() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        Vertex a = graph.addVertex(null);
+        Vertex b = graph.addVertex(null);
+        Vertex c = graph.addVertex(null);
+        Vertex d = graph.addVertex(null);
+        graph.addEdge(null, a, b, "knows");
+        graph.addEdge(null, b, c, "knows");
+        graph.addEdge(null, c, d, "knows");
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        graph.createLabelIndex("knows");
+        graph.addEdge(null, a, d, "knows");
+        graph.commit();
+        long from = (Long)a.getId();
+        long to = (Long)d.getId();
+        assertTrue(Arrays.equals(new long[]{from, to}, graph.shortestPath(from, to, Direction.OUT, 3, "knows")));
+        assertTrue(Arrays.equals(new long[]{to, from}, graph.shortestPath(to, from, Direction.BOTH, 3, "knows")));
+        assertNull(graph.shortestPath(to, from, Direction.OUT, 3, "knows"));
+        assertNull(graph.shortestPath(from, to, Direction.OUT, 3, "created"));
+        assertTrue(graph.isReachable(from, to, Direction.OUT, 1));
+        // The path as of a date before the index got created is found through the label of the edges
+        graph.setCheckpointTime(new Date(1500));
+        assertTrue(Arrays.equals(new long[]{from, (Long)b.getId(), (Long)c.getId(), to}, graph.shortestPath(from, to, Direction.OUT, 3, "knows")));
+        assertNull(graph.shortestPath(from, to, Direction.OUT, 2, "knows"));
+        assertFalse(graph.isReachable(from, to, Direction.OUT, 1, "knows"));
+        graph.shutdown();
+    }
+
+    public void testTimeIndex() throws Exception {
+        String graphURI = "datomic:mem://tinkerpop" + UUID.randomUUID();
+        FluxGraph graph = new FluxGraph(graphURI);
+        graph.setTransactionTime(new Date(1000));
+        Vertex first = graph.addVertex(null);
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        Vertex second = graph.addVertex(null);
+        graph.commit();
+        FluxTimeIndex timeIndex = graph.getTimeIndex();
+        assertNull(timeIndex.getTransaction(new Date(1)));
+        Long firstTransaction = timeIndex.getTransaction(new Date(1000));
+        assertEquals(firstTransaction, timeIndex.getTransaction(new Date(1999)));
+        assertEquals(1000, timeIndex.getDate(firstTransaction).getTime());
+        assertEquals(2000, timeIndex.getDate(timeIndex.getTransaction(new Date(2000))).getTime());
+        graph.setCheckpointTime(new Date(1500));
+        assertFalse(graph.getVertex(first.getId()).isDeleted());
+        assertTrue(graph.getVertex(second.getId()).isDeleted());
+        // A transaction of another graph on the same database is found at the current date, even before it is seen on the transaction report queue
+        FluxGraph other = new FluxGraph(graphURI);
+        Vertex third = other.addVertex(null);
+        other.commit();
+        graph.setCheckpointTime(new Date());
+        assertFalse(graph.getVertex(third.getId()).isDeleted());
+        other.shutdown();
+        graph.shutdown();
+    }
+
+    public void testVersionIndex() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        graph.commit();
+        vertex.setProperty("name", "josh");
+        graph.commit();
+        vertex.setProperty("name", "peter");
+        graph.commit();
+        FluxVersionIndex versionIndex = graph.getVersionIndex();
+        Database database = graph.getRawGraph();
+        // The chain of the element is loaded from the history of the database and kept up to date with the commits of the graph
+        long[] transactions = versionIndex.getTransactions(database, vertex.getId());
+        assertEquals(3, transactions.length);
+        assertTrue(transactions[0] < transactions[1] && transactions[1] < transactions[2]);
+        assertEquals(transactions[2], versionIndex.getTransaction(database, vertex.getId()));
+        vertex.setProperty("name", "vadas");
+        graph.commit();
+        assertEquals(4, versionIndex.getTransactions(graph.getRawGraph(), vertex.getId()).length);
+        // The chain up to an older database value
+        Database older = graph.getRawGraph(transactions[1]);
+        assertEquals(2, versionIndex.getTransactions(older, vertex.getId()).length);
+        assertEquals(transactions[1], versionIndex.getTransaction(older, vertex.getId()));
+        // Chains of multiple elements are loaded at once
+        Vertex other = graph.addVertex(null);
+        graph.commit();
+        graph.getVersionIndex().load(Arrays.asList(vertex.getId(), other.getId()));
+        assertEquals(1, versionIndex.getTransactions(graph.getRawGraph(), other.getId()).length);
+        assertEquals(3, count(((TimeAwareVertex)vertex).getPreviousVersions()));
+        assertEquals("josh", ((TimeAwareVertex)graph.getVertex(vertex.getId())).getPreviousVersion().getPreviousVersion().getProperty("name"));
+        graph.shutdown();
+    }
+
+    public void testTimeIntervals() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        graph.setTransactionTime(new Date(1000));
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        Vertex other = graph.addVertex(null);
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        vertex.setProperty("name", "josh");
+        graph.commit();
+        graph.setTransactionTime(new Date(3000));
+        vertex.setProperty("name", "peter");
+        graph.commit();
+        TimeAwareVertex current = (TimeAwareVertex)graph.getVertex(vertex.getId());
+        TimeAwareVertex previous = current.getPreviousVersion();
+        FluxTimeIntervals intervals = graph.getTimeIntervals(Arrays.asList(current, previous, (TimeAwareVertex)graph.getVertex(other.getId())));
+        assertEquals(3, intervals.size());
+        assertEquals(3000, intervals.getStart(0));
+        assertEquals(Long.MAX_VALUE, intervals.getEnd(0));
+        assertEquals(2000, intervals.getStart(1));
+        assertEquals(3000, intervals.getEnd(1));
+        assertEquals(1000, intervals.getStart(2));
+        assertEquals(Long.MAX_VALUE, intervals.getEnd(2));
+        // The intervals in bulk match the intervals of the elements
+        assertEquals(previous.getTimeInterval(), intervals.getInterval(1));
+        graph.shutdown();
+    }
+
+    public void testVersionIteration() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = addVersions(graph);
+        TimeAwareVertex current = (TimeAwareVertex)graph.getVertex(vertex.getId());
+        // The versions are walked on the version chain of the element, in both directions
+        assertEquals(Arrays.asList("peter", "josh", "marko"), getNames(current.getPreviousVersions()));
+        TimeAwareVertex first = current.getPreviousVersion().getPreviousVersion().getPreviousVersion();
+        assertNull(first.getPreviousVersion());
+        assertEquals(Arrays.asList("josh", "peter", "vadas"), getNames(first.getNextVersions()));
+        TimeAwareVertex last = null;
+        for (TimeAwareVertex version : first.getNextVersions()) {
+            last = version;
+        }
+        assertTrue(last.isCurrentVersion());
+        assertEquals(Arrays.asList("marko"), getNames(first.getNextVersion().getPreviousVersions()));
+        assertTrue(getNames(current.getNextVersions()).isEmpty());
+        graph.shutdown();
+    }
+
+    public void testVersionFilters() throws Exception {
+        FluxGraph graph = (FluxGraph)generateGraph();
+        Vertex vertex = addVersions(graph);
+        TimeAwareVertex current = (TimeAwareVertex)graph.getVertex(vertex.getId());
+        TimeAwareVertex first = current.getPreviousVersion().getPreviousVersion().getPreviousVersion();
+        // The start of the range is inclusive, the end of the range is exclusive
+        TimeRangeFilter range = new TimeRangeFilter(new Date(2000), new Date(4000));
+        assertEquals(Arrays.asList("peter", "josh"), getNames(current.getPreviousVersions(range)));
+        assertEquals(Arrays.asList("josh", "peter"), getNames(first.getNextVersions(range)));
+        assertEquals(Arrays.asList("vadas"), getNames(first.getNextVersions(new TimeRangeFilter(new Date(3500), null))));
+        assertEquals(Arrays.asList("josh", "marko"), getNames(current.getPreviousVersions(new TimeRangeFilter(null, new Date(3000)))));
+        assertTrue(getNames(current.getPreviousVersions(new TimeRangeFilter(new Date(5000), null))).isEmpty());
+        // The versions in which the property was set or removed
+        PropertyChangedFilter changed = new PropertyChangedFilter("city");
+        assertEquals(Arrays.asList("josh"), getNames(current.getPreviousVersions(changed)));
+        assertEquals(Arrays.asList("josh", "vadas"), getNames(first.getNextVersions(changed)));
+        assertEquals(Arrays.asList("josh", "peter", "vadas"), getNames(first.getNextVersions(new PropertyChangedFilter("name"))));
+        assertTrue(getNames(first.getNextVersions(new PropertyChangedFilter("age"))).isEmpty());
+        graph.shutdown();
+    }
+
+    // Adds a vertex with four versions, created at 1000, 2000, 3000 and 4000
+    private static Vertex addVersions(final FluxGraph graph) {
+        graph.setTransactionTime(new Date(1000));
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "marko");
+        graph.commit();
+        graph.setTransactionTime(new Date(2000));
+        vertex.setProperty("name", "josh");
+        vertex.setProperty("city", "brussels");
+        graph.commit();
+        graph.setTransactionTime(new Date(3000));
+        vertex.setProperty("name", "peter");
+        graph.commit();
+        graph.setTransactionTime(new Date(4000));
+        vertex.setProperty("name", "vadas");
+        vertex.removeProperty("city");
+        graph.commit();
+        return vertex;
+    }
+
+    private static List<Object> getNames(final Iterable<TimeAwareVertex> versions) {
+        List<Object> names = new ArrayList<Object>();
+        for (TimeAwareVertex version : versions) {
+            names.add(version.getProperty("name"));
+        }
+        return names;
+    }
+
+    private static Vertex addNamedVertex(final FluxGraph graph, final List<Vertex> vertices) {
+        Vertex vertex = graph.addVertex(null);
+        vertex.setProperty("name", "vertex" + vertices.size());
+        vertices.add(vertex);
+        return vertex;
+    }
+
+    private static int countIds(final LongIterator ids) {
+        int count = 0;
+        while (ids.hasNext()) {
+            ids.next();
+            count++;
+        }
+        return count;
+    }
+
     public Graph generateGraph(String name) {
         this.currentGraph = new FluxGraph("datomic:mem://tinkerpop" + name + UUID.randomUUID());
         return this.currentGraph;